@@ -58,7 +58,8 @@ public abstract class AbstractEventHandlerMethodAdapter implements EventHandler
     ReflectionUtils.access(handler, accessible -> {
       try {
         return accessible.invoke(
-                getInvoker(), ASSEMBLER.assemble(handler, event));
+                getInvoker(), EventArgumentAdapter.assemble(
+                        event, () -> ASSEMBLER.assemble(handler, event)));
       } catch (InvocationTargetException e) {
         throw new EventHandlingException(e);
       }
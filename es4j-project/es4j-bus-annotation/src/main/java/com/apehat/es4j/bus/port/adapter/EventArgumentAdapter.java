@@ -23,12 +23,21 @@ import com.apehat.es4j.bus.annotation.AnnotateFieldAdapter;
 import com.apehat.es4j.bus.annotation.AnnotatedMethodAdapter;
 import com.apehat.es4j.bus.event.Event;
 
+import java.util.function.Supplier;
+
 /**
  * @author hanpengfei
  * @since 1.0
  */
 final class EventArgumentAdapter extends PrioritizedArgumentAdapter {
   
+  /*
+   * The prototype of the event whose arguments are being assembled, so the
+   * parameters of a handler method are adapted from a single prototype,
+   * rather than a copy for each parameter.
+   */
+  private static final ThreadLocal<Assembling> ASSEMBLING = new ThreadLocal<>();
+  
   public EventArgumentAdapter() {
     registerAdapter(new AnnotatedMethodAdapter());
     registerAdapter(new AnnotateFieldAdapter());
@@ -41,6 +50,41 @@ final class EventArgumentAdapter extends PrioritizedArgumentAdapter {
     if (value != null) {
       return value;
     }
+    final Assembling assembling = ASSEMBLING.get();
+    if (assembling != null && assembling.event == prototype) {
+      return super.adapt(alias, assembling.prototype());
+    }
     return super.adapt(alias, ((Event) prototype).prototype());
   }
+  
+  static <T> T assemble(Event event, Supplier<T> assembler) {
+    final Assembling outer = ASSEMBLING.get();
+    ASSEMBLING.set(new Assembling(event));
+    try {
+      return assembler.get();
+    } finally {
+      if (outer == null) {
+        ASSEMBLING.remove();
+      } else {
+        ASSEMBLING.set(outer);
+      }
+    }
+  }
+  
+  private static final class Assembling {
+    
+    private final Event event;
+    private Object prototype;
+    
+    Assembling(Event event) {
+      this.event = event;
+    }
+    
+    Object prototype() {
+      if (prototype == null) {
+        prototype = event.prototype();
+      }
+      return prototype;
+    }
+  }
 }
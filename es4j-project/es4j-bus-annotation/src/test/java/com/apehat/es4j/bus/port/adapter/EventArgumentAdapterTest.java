@@ -17,14 +17,18 @@
 package com.apehat.es4j.bus.port.adapter;
 
 import com.apehat.Value;
+import com.apehat.es4j.bus.annotation.EventParam;
 import com.apehat.es4j.bus.event.Event;
 import com.apehat.es4j.bus.event.EventFixtureProvider;
 import com.apehat.support.TestDataProvider;
+import com.apehat.support.UserId;
 import com.apehat.support.UserRegistered;
 import org.testng.annotations.Test;
 
 import static com.apehat.support.TestDataProvider.*;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
 
 /**
  * @author hanpengfei
@@ -64,6 +68,17 @@ public class EventArgumentAdapterTest {
             adapt(Event.EVENT + "." + USER_REGISTERED_TIME));
   }
 
+  @Test
+  public void testAssembleArgumentsFromSinglePrototype() throws Exception {
+    final MultiParameterHandler handler = new MultiParameterHandler();
+    new EventHandlerNormalMethodAdapter(handler, MultiParameterHandler.class.getDeclaredMethod(
+            "handle", UserRegistered.class, UserId.class)).onEvent(event);
+
+    assertNotNull(handler.event);
+    // both parameters are adapted from the same copy of the prototype
+    assertSame(handler.userId, handler.event.getUserId());
+  }
+
   private Object adapt(String name) {
     Value<?> value = extractor.adapt(name, event);
     if (value == null) {
@@ -71,4 +86,16 @@ public class EventArgumentAdapterTest {
     }
     return value.get();
   }
+
+  private static final class MultiParameterHandler {
+
+    private UserRegistered event;
+    private UserId userId;
+
+    private void handle(@EventParam(alias = Event.EVENT) UserRegistered event,
+                        @EventParam(alias = USER_REGISTERED_ID) UserId userId) {
+      this.event = event;
+      this.userId = userId;
+    }
+  }
 }
\ No newline at end of file
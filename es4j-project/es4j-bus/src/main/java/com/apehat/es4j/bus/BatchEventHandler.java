@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus;
+
+import com.apehat.es4j.bus.event.Event;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An event handler which handles events in batches. It is subscribed like
+ * any other handler:
+ * <pre>
+ *   bus.subscribe(OrderPlaced.class, (BatchEventHandler) repository::saveAll);
+ * </pre>
+ * A {@link com.apehat.es4j.bus.disptach.BatchingDispatcher} accumulates the
+ * events of each such subscriber, and delivers them together once drained.
+ * The other dispatchers deliver each event as a batch of one.
+ * <p>
+ * Each event of a batch is reported as delivered only after this handler
+ * returned, or all as failed if it threw, so their retries and dead letters
+ * follow the batch.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+@FunctionalInterface
+public interface BatchEventHandler extends EventHandler {
+  
+  void onEvents(List<Event> events);
+  
+  @Override
+  default void onEvent(Event event) {
+    onEvents(Collections.singletonList(event));
+  }
+}
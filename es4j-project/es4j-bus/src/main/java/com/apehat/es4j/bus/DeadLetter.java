@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus;
+
+import com.apehat.es4j.bus.event.Event;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+
+/**
+ * A submitted event, which its subscriber still failed after the last retry.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class DeadLetter {
+  
+  private final Event event;
+  private final Subscriber subscriber;
+  private final Throwable cause;
+  private final int attempts;
+  private final long deadOn;
+  
+  DeadLetter(Event event, Subscriber subscriber, Throwable cause, int attempts, long deadOn) {
+    this.event = event;
+    this.subscriber = subscriber;
+    this.cause = cause;
+    this.attempts = attempts;
+    this.deadOn = deadOn;
+  }
+  
+  public Event event() {
+    return event;
+  }
+  
+  public EventHandler handler() {
+    return subscriber.handler();
+  }
+  
+  Subscriber subscriber() {
+    return subscriber;
+  }
+  
+  public Throwable cause() {
+    return cause;
+  }
+  
+  /**
+   * Returns the number of attempts, including the first delivery.
+   *
+   * @return the number of attempts
+   */
+  public int attempts() {
+    return attempts;
+  }
+  
+  /**
+   * Returns the time the event was dead lettered, in milliseconds read from
+   * the clock of bus, like the occurrence time of the event.
+   *
+   * @return the time of dead letter
+   */
+  public long deadOn() {
+    return deadOn;
+  }
+  
+  @Override
+  public String toString() {
+    return "DeadLetter{event=" + event + ", handler=" + subscriber.handler()
+            + ", attempts=" + attempts + ", cause=" + cause + '}';
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded queue of dead letters, which can be inspected and replayed by
+ * {@link EventBus#replay(DeadLetter)}. The oldest dead letter is dropped when
+ * the queue is full.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class DeadLetterQueue {
+  
+  private final int capacity;
+  private final Deque<DeadLetter> letters = new ArrayDeque<>();
+  private final LongAdder received = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  
+  DeadLetterQueue(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    this.capacity = capacity;
+  }
+  
+  void offer(DeadLetter letter) {
+    received.increment();
+    synchronized (letters) {
+      if (letters.size() == capacity) {
+        letters.pollFirst();
+        dropped.increment();
+      }
+      letters.offerLast(letter);
+    }
+  }
+  
+  /**
+   * Returns the dead letters, from the oldest, without removing them.
+   *
+   * @return the snapshot of dead letters
+   */
+  public List<DeadLetter> snapshot() {
+    synchronized (letters) {
+      return new ArrayList<>(letters);
+    }
+  }
+  
+  /**
+   * Removes and returns all dead letters, from the oldest.
+   *
+   * @return the removed dead letters
+   */
+  public List<DeadLetter> drain() {
+    synchronized (letters) {
+      final List<DeadLetter> drained = new ArrayList<>(letters);
+      letters.clear();
+      return drained;
+    }
+  }
+  
+  public int size() {
+    synchronized (letters) {
+      return letters.size();
+    }
+  }
+  
+  /**
+   * Returns the number of dead letters ever received.
+   *
+   * @return the number of received dead letters
+   */
+  public long received() {
+    return received.sum();
+  }
+  
+  /**
+   * Returns the number of dead letters dropped because the queue was full.
+   *
+   * @return the number of dropped dead letters
+   */
+  public long dropped() {
+    return dropped.sum();
+  }
+}
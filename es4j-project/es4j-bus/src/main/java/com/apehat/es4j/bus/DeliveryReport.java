@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of a submitted event after all its subscribers were done.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class DeliveryReport {
+  
+  private final int delivered;
+  private final int discarded;
+  private final Map<EventHandler, Throwable> failures;
+  
+  DeliveryReport(int delivered, int discarded, Map<EventHandler, Throwable> failures) {
+    this.delivered = delivered;
+    this.discarded = discarded;
+    this.failures = Collections.unmodifiableMap(failures);
+  }
+  
+  /**
+   * Returns the count of subscribers which had handled the event.
+   *
+   * @return the count of delivered subscribers
+   */
+  public int delivered() {
+    return delivered;
+  }
+  
+  /**
+   * Returns the count of subscribers which the event was discarded for, by
+   * the overflow policy of dispatcher.
+   *
+   * @return the count of discarded subscribers
+   */
+  public int discarded() {
+    return discarded;
+  }
+  
+  /**
+   * Returns the failure of each failed subscriber, keyed by its handler.
+   *
+   * @return the failures of subscribers
+   */
+  public Map<EventHandler, Throwable> failures() {
+    return failures;
+  }
+  
+  public boolean isSuccessful() {
+    return failures.isEmpty() && discarded == 0;
+  }
+  
+  @Override
+  public String toString() {
+    return "DeliveryReport{delivered=" + delivered + ", discarded=" + discarded
+            + ", failures=" + failures.keySet() + '}';
+  }
+}
@@ -20,6 +20,13 @@ import com.apehat.clone.CloningService;
 import com.apehat.clone.DefaultCloningService;
 
 /**
+ * The registry of the default domain services.
+ * <p>
+ * The registered cloning service is the default of the buses, or the
+ * event identity services, which are created afterwards. A bus can use
+ * its own cloning service, see
+ * {@link com.apehat.es4j.bus.clone.CloningPolicy}.
+ *
  * @author hanpengfei
  * @since 1.0
  */
@@ -18,14 +18,30 @@ package com.apehat.es4j.bus;
 
 import com.apehat.es4j.bus.disptach.AsyncDispatcher;
 import com.apehat.es4j.bus.disptach.Dispatcher;
+import com.apehat.es4j.bus.event.Event;
 import com.apehat.es4j.bus.event.EventIdentityService;
 import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.subscriber.DeliveryPolicy;
 import com.apehat.es4j.bus.subscriber.Subscriber;
 import com.apehat.es4j.bus.subscriber.SubscriberIdentityService;
-import com.apehat.es4j.bus.subscriber.support.CopyOnWriteSubscriberRepository;
+import com.apehat.es4j.bus.subscriber.support.ConcurrentSubscriberRepository;
+import com.apehat.es4j.bus.timer.Timeout;
+import com.apehat.es4j.bus.timer.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Set;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author hanpengfei
@@ -34,14 +50,94 @@ import java.util.concurrent.ExecutorService;
 @SuppressWarnings("WeakerAccess")
 public final class EventBus {
   
-  private final SubscriberIdentityService subscriberIdentityService =
-          new SubscriberIdentityService(new CopyOnWriteSubscriberRepository());
-  private final EventIdentityService eventIdentityService = new EventIdentityService();
+  private static final Logger LOGGER = LoggerFactory.getLogger(EventBus.class);
+  private static final int DEFAULT_DEAD_LETTER_CAPACITY = 10000;
+  
+  private final SubscriberIdentityService subscriberIdentityService;
+  private final EventIdentityService eventIdentityService;
   private final Dispatcher dispatcher = new Dispatcher();
-  private final AsyncDispatcher asyncDispatcher;
+  private final Dispatcher asyncDispatcher;
+  private final Quiescence quiescence = new Quiescence();
+  private final TimingWheel timingWheel;
+  private final Executor timerExecutor;
+  private final DeadLetterQueue deadLetters;
+  private final Redelivery redelivery;
   
   public EventBus(ExecutorService pool) {
-    this.asyncDispatcher = new AsyncDispatcher(pool);
+    this(new AsyncDispatcher(pool));
+  }
+  
+  /**
+   * Creates a bus whose delayed events and retries are scheduled on the
+   * default timing wheel, which is shared by all such buses, so they don't
+   * each keep a ticking worker thread.
+   *
+   * @param asyncDispatcher the dispatcher of submitted events
+   */
+  public EventBus(Dispatcher asyncDispatcher) {
+    this(asyncDispatcher, DefaultTimingWheel.INSTANCE);
+  }
+  
+  public EventBus(Dispatcher asyncDispatcher, TimingWheel timingWheel) {
+    this(asyncDispatcher, timingWheel, new EventIdentityService());
+  }
+  
+  /**
+   * Creates a bus which provisions events with the specified service, like
+   * one whose subscribers share a single copy of each event prototype, see
+   * {@link com.apehat.es4j.bus.event.PrototypeAccess}. The subscriptions
+   * of the bus are numbered by the sequence of that service.
+   *
+   * @param asyncDispatcher the dispatcher of submitted events
+   * @param timingWheel the timing wheel of delayed events and retries
+   * @param eventIdentityService the service to provision events
+   */
+  public EventBus(Dispatcher asyncDispatcher, TimingWheel timingWheel,
+                  EventIdentityService eventIdentityService) {
+    this(asyncDispatcher, timingWheel, eventIdentityService, TimerExecutor.INSTANCE);
+  }
+  
+  /**
+   * Creates a bus like {@link #EventBus(Dispatcher, TimingWheel,
+   * EventIdentityService)}, whose delayed events are dispatched by the
+   * specified executor once due, so a blocking dispatcher never holds up
+   * the thread of timing wheel. By default they are dispatched by a shared
+   * pool of daemon threads.
+   *
+   * @param asyncDispatcher the dispatcher of submitted events
+   * @param timingWheel the timing wheel of delayed events and retries
+   * @param eventIdentityService the service to provision events
+   * @param timerExecutor the executor to dispatch the due events
+   */
+  public EventBus(Dispatcher asyncDispatcher, TimingWheel timingWheel,
+                  EventIdentityService eventIdentityService, Executor timerExecutor) {
+    this(asyncDispatcher, timingWheel, eventIdentityService, timerExecutor, DEFAULT_DEAD_LETTER_CAPACITY);
+  }
+  
+  /**
+   * Creates a bus like {@link #EventBus(Dispatcher, TimingWheel,
+   * EventIdentityService, Executor)}, whose dead letter queue keeps at most
+   * the specified number of dead letters.
+   *
+   * @param asyncDispatcher the dispatcher of submitted events
+   * @param timingWheel the timing wheel of delayed events and retries
+   * @param eventIdentityService the service to provision events
+   * @param timerExecutor the executor to dispatch the due events and retries
+   * @param deadLetterCapacity the capacity of dead letter queue
+   */
+  public EventBus(Dispatcher asyncDispatcher, TimingWheel timingWheel,
+                  EventIdentityService eventIdentityService, Executor timerExecutor,
+                  int deadLetterCapacity) {
+    this.eventIdentityService = Objects.requireNonNull(
+            eventIdentityService, "Event identity service must not be null");
+    this.subscriberIdentityService = new SubscriberIdentityService(
+            new ConcurrentSubscriberRepository(), eventIdentityService.sequence());
+    this.asyncDispatcher = Objects.requireNonNull(asyncDispatcher, "Async dispatcher must not be null");
+    this.timingWheel = Objects.requireNonNull(timingWheel, "Timing wheel must not be null");
+    this.timerExecutor = Objects.requireNonNull(timerExecutor, "Timer executor must not be null");
+    this.deadLetters = new DeadLetterQueue(deadLetterCapacity);
+    this.redelivery = new Redelivery(asyncDispatcher, timingWheel, timerExecutor, deadLetters,
+            eventIdentityService.clock());
   }
   
   /* Global subscribe */
@@ -56,25 +152,257 @@ public final class EventBus {
     subscriberIdentityService.provisionSubscriber(type, handler);
   }
   
+  /* Subscribe with latency budget and circuit breaking */
+  
+  public void subscribe(Class<?> type, EventHandler handler, DeliveryPolicy policy) {
+    subscriberIdentityService.provisionSubscriber(type, handler, policy);
+  }
+  
+  /* Batch subscribe */
+  
+  public void subscribeAll(SubscriptionBatch batch) {
+    subscriberIdentityService.provisionSubscribers(batch.subscriptions(), batch.policies());
+  }
+  
+  /* Unsubscribe */
+  
+  public boolean unsubscribe(EventHandler handler) {
+    return subscriberIdentityService.removeSubscriber(handler);
+  }
+  
   /* Publish */
   
   public void publish(String source, Object event) {
-    final PendingEvent pendingEvent = this.provisionEvent(source, event);
-    dispatcher.dispatch(pendingEvent, this.subscribersOf(pendingEvent));
+    final Subscriber[] subscribers = this.subscribersOf(event);
+    if (subscribers.length == 0) {
+      return;
+    }
+    dispatcher.dispatch(this.provisionEvent(source, event), subscribers);
   }
   
   /* Submit */
   
   public void submit(String source, Object event) {
-    final PendingEvent pendingEvent = this.provisionEvent(source, event);
-    asyncDispatcher.dispatch(pendingEvent, this.subscribersOf(pendingEvent));
+    submit(source, event, PendingEvent.UNSPECIFIED_PRIORITY);
   }
   
-  private Set<Subscriber> subscribersOf(PendingEvent event) {
-    return subscriberIdentityService.subscribersWith(event.type());
+  /**
+   * Submit the event like {@link #submit(String, Object)} with the specified
+   * priority, 0 is the highest priority. The priority is used by a
+   * dispatcher which supports it, like
+   * {@link com.apehat.es4j.bus.disptach.PriorityDispatcher}.
+   *
+   * @param source the source of event
+   * @param event the event prototype
+   * @param priority the priority of event
+   */
+  public void submit(String source, Object event, int priority) {
+    final Subscriber[] subscribers = this.subscribersOf(event);
+    if (subscribers.length == 0) {
+      warnNonSubscriber(event);
+      return;
+    }
+    submit(source, event, subscribers, new SubmitTracker(subscribers.length, quiescence, redelivery, null), priority);
+  }
+  
+  /**
+   * Submit the event like {@link #submit(String, Object)}, and returns a
+   * stage which will be completed with the delivery report after all
+   * subscribers were done. The stage is completed exceptionally if the event
+   * couldn't be dispatched.
+   *
+   * @param source the source of event
+   * @param event the event prototype
+   * @return the stage of delivery report
+   */
+  public CompletionStage<DeliveryReport> submitTracked(String source, Object event) {
+    final Subscriber[] subscribers = this.subscribersOf(event);
+    final CompletableFuture<DeliveryReport> report = new CompletableFuture<>();
+    if (subscribers.length == 0) {
+      warnNonSubscriber(event);
+      report.complete(new DeliveryReport(0, 0, Collections.emptyMap()));
+      return report;
+    }
+    try {
+      submit(source, event, subscribers, new SubmitTracker(subscribers.length, quiescence, redelivery, report),
+              PendingEvent.UNSPECIFIED_PRIORITY);
+    } catch (RuntimeException ignored) {
+      // the report had been completed exceptionally
+    }
+    return report;
+  }
+  
+  private void submit(String source, Object event, Subscriber[] subscribers,
+                      SubmitTracker tracker, int priority) {
+    try {
+      final PendingEvent pendingEvent = eventIdentityService.acquireEvent(event, source, tracker, priority);
+      tracker.bind(pendingEvent, subscribers);
+      asyncDispatcher.dispatch(pendingEvent, subscribers);
+    } catch (RuntimeException e) {
+      tracker.abort(e);
+      throw e;
+    }
+  }
+  
+  /* Retry and dead letter */
+  
+  /**
+   * Returns the dead letters of the subscribers, which still failed after
+   * the last retry of their retry policy.
+   *
+   * @return the dead letter queue
+   */
+  public DeadLetterQueue deadLetters() {
+    return deadLetters;
+  }
+  
+  /**
+   * Submit the event of dead letter again to its subscriber, with fresh
+   * retries. The subscriber is resolved from the subscriptions of bus, so
+   * the dead letter is dropped if its handler was unsubscribed since.
+   *
+   * @param letter the dead letter
+   * @return true if the dead letter was replayed, false if it was dropped
+   */
+  public boolean replay(DeadLetter letter) {
+    final Event event = letter.event();
+    final Subscriber subscriber = subscriberIdentityService.subscriberOf(event.type(), letter.handler());
+    if (subscriber == null) {
+      LOGGER.debug("Drop dead letter of unsubscribed {}", letter.handler());
+      return false;
+    }
+    submit(event.source(), event.prototype(), new Subscriber[]{subscriber},
+            new SubmitTracker(1, quiescence, redelivery, null), PendingEvent.UNSPECIFIED_PRIORITY);
+    return true;
+  }
+  
+  /**
+   * Drain the dead letter queue, and replay each dead letter whose handler
+   * is still subscribed.
+   *
+   * @return the number of replayed dead letters
+   */
+  public int replayDeadLetters() {
+    int replayed = 0;
+    for (DeadLetter letter : deadLetters.drain()) {
+      if (replay(letter)) {
+        replayed++;
+      }
+    }
+    return replayed;
+  }
+  
+  /**
+   * Returns the number of retries ever scheduled.
+   *
+   * @return the number of retries
+   */
+  public long retried() {
+    return redelivery.retried();
+  }
+  
+  /**
+   * Returns the number of retries waiting for their backoff.
+   *
+   * @return the number of pending retries
+   */
+  public long pendingRetries() {
+    return redelivery.pendingRetries();
+  }
+  
+  /* Scheduled submit */
+  
+  /**
+   * Submit the event like {@link #submit(String, Object)} after the
+   * specified delay. The prototype is copied on call, while the subscribers
+   * are resolved when the event is due, and the event is not in flight until
+   * then. The due event is submitted by the timer executor of the bus.
+   *
+   * @param delay the delay of submit
+   * @param source the source of event
+   * @param event the event prototype
+   * @return the handle to cancel the submit
+   */
+  public Timeout submitAfter(Duration delay, String source, Object event) {
+    final Object prototype = eventIdentityService.snapshotOf(event);
+    return timingWheel.schedule(() -> submitLater(source, prototype), delay.toNanos(), TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * Submit the event like {@link #submit(String, Object)} at the specified
+   * time.
+   *
+   * @param time the time of submit
+   * @param source the source of event
+   * @param event the event prototype
+   * @return the handle to cancel the submit
+   * @see #submitAfter(Duration, String, Object)
+   */
+  public Timeout submitAt(Instant time, String source, Object event) {
+    final long delay = time.toEpochMilli() - eventIdentityService.clock().millis();
+    return submitAfter(Duration.ofMillis(delay), source, event);
+  }
+  
+  private void submitLater(String source, Object event) {
+    try {
+      timerExecutor.execute(() -> {
+        try {
+          submit(source, event);
+        } catch (RuntimeException e) {
+          LOGGER.warn("Couldn't submit delayed " + event, e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      LOGGER.warn("Couldn't submit delayed " + event, e);
+    }
+  }
+  
+  /* Quiescence */
+  
+  /**
+   * Wait until all submitted events, including the events submitted by their
+   * subscribers, were done, or the timeout elapsed.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit the time unit of timeout
+   * @return true if there is no submitted event in flight, false if the
+   * timeout elapsed
+   * @throws InterruptedException if the current thread was interrupted
+   */
+  public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+    return quiescence.await(timeout, unit);
+  }
+  
+  private void warnNonSubscriber(Object event) {
+    if (LOGGER.isWarnEnabled()) {
+      LOGGER.warn("Non subscriber for " + event.getClass());
+    }
+  }
+  
+  /*
+   * Subscribers are resolved before the event is provisioned, so that an
+   * event without subscriber will never be cloned.
+   */
+  private Subscriber[] subscribersOf(Object event) {
+    Objects.requireNonNull(event, "Event prototype must not be null");
+    return subscriberIdentityService.snapshotWith(event.getClass());
   }
   
   private PendingEvent provisionEvent(String source, Object event) {
     return eventIdentityService.provisionEvent(event, source);
   }
+  
+  private static final class DefaultTimingWheel {
+    
+    private static final TimingWheel INSTANCE = new TimingWheel();
+  }
+  
+  private static final class TimerExecutor {
+    
+    private static final ExecutorService INSTANCE = Executors.newCachedThreadPool(runnable -> {
+      final Thread thread = new Thread(runnable, "es4j-timer-submit");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count the in flight events of a bus, and wake up the waiters when there is
+ * no event in flight. The monitor is only acquired when there are waiters.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class Quiescence {
+  
+  private final AtomicLong inFlight = new AtomicLong();
+  private final AtomicInteger waiters = new AtomicInteger();
+  
+  void enter() {
+    inFlight.incrementAndGet();
+  }
+  
+  void exit() {
+    if (inFlight.decrementAndGet() == 0 && waiters.get() > 0) {
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+  
+  boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    if (inFlight.get() == 0) {
+      return true;
+    }
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    waiters.incrementAndGet();
+    try {
+      synchronized (this) {
+        while (inFlight.get() != 0) {
+          final long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            return false;
+          }
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+      }
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus;
+
+import com.apehat.es4j.bus.disptach.Dispatcher;
+import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.subscriber.RetryPolicy;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import com.apehat.es4j.bus.timer.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retry the failed subscribers of submitted events on the timing wheel, so
+ * that no thread is blocked by the backoff, and dead letter them after the
+ * last retry. The due retries are dispatched by the timer executor, so a
+ * blocking dispatcher never holds up the thread of timing wheel. The event
+ * is retained until its retry was dispatched. The dead letters are stamped
+ * by the clock of bus.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class Redelivery {
+  
+  private static final Logger LOGGER = LoggerFactory.getLogger(Redelivery.class);
+  
+  private final Dispatcher dispatcher;
+  private final TimingWheel timingWheel;
+  private final Executor timerExecutor;
+  private final DeadLetterQueue deadLetters;
+  private final Clock clock;
+  private final LongAdder retried = new LongAdder();
+  private final AtomicLong pendingRetries = new AtomicLong();
+  
+  Redelivery(Dispatcher dispatcher, TimingWheel timingWheel, Executor timerExecutor,
+             DeadLetterQueue deadLetters, Clock clock) {
+    this.dispatcher = dispatcher;
+    this.timingWheel = timingWheel;
+    this.timerExecutor = timerExecutor;
+    this.deadLetters = deadLetters;
+    this.clock = clock;
+  }
+  
+  /**
+   * Schedule the retry of subscriber, if its retry policy allows.
+   *
+   * @param event the failed event
+   * @param subscriber the failed subscriber
+   * @param retry the retry, starts from 1
+   * @param tracker the tracker of event
+   * @return true if the retry was scheduled
+   */
+  boolean retry(PendingEvent event, Subscriber subscriber, int retry, SubmitTracker tracker) {
+    final RetryPolicy policy = subscriber.policy().retry();
+    if (retry > policy.maxRetries()) {
+      return false;
+    }
+    event.retain();
+    pendingRetries.incrementAndGet();
+    try {
+      timingWheel.schedule(() -> redeliverLater(event, subscriber, tracker),
+              policy.backoffNanos(retry), TimeUnit.NANOSECONDS);
+    } catch (RuntimeException e) {
+      pendingRetries.decrementAndGet();
+      event.release();
+      LOGGER.warn("Couldn't schedule retry of " + subscriber.handler(), e);
+      return false;
+    }
+    retried.increment();
+    return true;
+  }
+  
+  private void redeliverLater(PendingEvent event, Subscriber subscriber, SubmitTracker tracker) {
+    try {
+      timerExecutor.execute(() -> redeliver(event, subscriber, tracker));
+    } catch (RejectedExecutionException e) {
+      pendingRetries.decrementAndGet();
+      try {
+        tracker.failedFinally(subscriber, e);
+      } finally {
+        event.release();
+      }
+    }
+  }
+  
+  private void redeliver(PendingEvent event, Subscriber subscriber, SubmitTracker tracker) {
+    pendingRetries.decrementAndGet();
+    try {
+      dispatcher.dispatch(event, new Subscriber[]{subscriber});
+    } catch (RuntimeException e) {
+      tracker.failedFinally(subscriber, e);
+    } finally {
+      event.release();
+    }
+  }
+  
+  boolean isRetryable(Subscriber subscriber) {
+    return subscriber.policy().retry().isRetryable();
+  }
+  
+  void deadLetter(PendingEvent event, Subscriber subscriber, Throwable cause, int attempts) {
+    LOGGER.warn("Dead letter of " + subscriber.handler() + " after " + attempts + " attempts", cause);
+    deadLetters.offer(new DeadLetter(event.toEvent(), subscriber, cause, attempts, clock.millis()));
+  }
+  
+  long retried() {
+    return retried.sum();
+  }
+  
+  long pendingRetries() {
+    return pendingRetries.get();
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus;
+
+import com.apehat.es4j.bus.event.DeliveryTracker;
+import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Track a submitted event until each of its subscribers reported, then
+ * release it from the in flight events of bus and complete the report, if
+ * the report was requested.
+ * <p>
+ * A failed subscriber with retry policy is retried before it is reported as
+ * failed, and dead lettered after the last retry.
+ * <p>
+ * The reference of event is released after the last subscriber reported,
+ * or after its dispatch was aborted, so a pooled event is recycled once the
+ * dispatcher and the pending retries released their references too. The
+ * counters are updated in place, since a tracker is allocated for each
+ * submit.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class SubmitTracker implements DeliveryTracker {
+  
+  private static final AtomicIntegerFieldUpdater<SubmitTracker> REMAINING =
+          AtomicIntegerFieldUpdater.newUpdater(SubmitTracker.class, "remaining");
+  private static final AtomicIntegerFieldUpdater<SubmitTracker> DELIVERED =
+          AtomicIntegerFieldUpdater.newUpdater(SubmitTracker.class, "delivered");
+  private static final AtomicIntegerFieldUpdater<SubmitTracker> DISCARDED =
+          AtomicIntegerFieldUpdater.newUpdater(SubmitTracker.class, "discarded");
+  private static final AtomicIntegerFieldUpdater<SubmitTracker> DONE =
+          AtomicIntegerFieldUpdater.newUpdater(SubmitTracker.class, "done");
+  private static final AtomicIntegerFieldUpdater<SubmitTracker> RELEASED =
+          AtomicIntegerFieldUpdater.newUpdater(SubmitTracker.class, "released");
+  
+  private final Map<EventHandler, Throwable> failures;
+  private final CompletableFuture<DeliveryReport> report;
+  private final Quiescence quiescence;
+  private final Redelivery redelivery;
+  private volatile int remaining;
+  private volatile int delivered;
+  private volatile int discarded;
+  private volatile int done;
+  private volatile int released;
+  private volatile ConcurrentMap<EventHandler, AtomicInteger> attempts;
+  private volatile PendingEvent event;
+  private volatile Subscriber[] subscribers;
+  
+  SubmitTracker(int subscribers, Quiescence quiescence, Redelivery redelivery,
+                CompletableFuture<DeliveryReport> report) {
+    assert subscribers > 0;
+    this.remaining = subscribers;
+    this.quiescence = quiescence;
+    this.redelivery = redelivery;
+    this.report = report;
+    this.failures = report == null ? null : new ConcurrentHashMap<>();
+    quiescence.enter();
+  }
+  
+  /**
+   * Bind the tracked event, before it was dispatched.
+   *
+   * @param event the tracked event
+   * @param subscribers the subscribers of event
+   */
+  void bind(PendingEvent event, Subscriber[] subscribers) {
+    this.event = event;
+    this.subscribers = subscribers;
+  }
+  
+  @Override
+  public void delivered(EventHandler handler) {
+    DELIVERED.incrementAndGet(this);
+    countDown();
+  }
+  
+  @Override
+  public void failed(EventHandler handler, Throwable cause) {
+    final Subscriber subscriber = subscriberOf(handler);
+    if (subscriber != null && redelivery.isRetryable(subscriber)) {
+      final int retry = attempts().computeIfAbsent(handler, key -> new AtomicInteger()).incrementAndGet();
+      if (done == 0 && redelivery.retry(event, subscriber, retry, this)) {
+        return;
+      }
+      redelivery.deadLetter(event, subscriber, cause, retry);
+    }
+    fail(handler, cause);
+  }
+  
+  /**
+   * The retry of subscriber couldn't be dispatched.
+   *
+   * @param subscriber the failed subscriber
+   * @param cause the cause of failure
+   */
+  void failedFinally(Subscriber subscriber, Throwable cause) {
+    final AtomicInteger retries = attempts().get(subscriber.handler());
+    redelivery.deadLetter(event, subscriber, cause, retries == null ? 1 : retries.get());
+    fail(subscriber.handler(), cause);
+  }
+  
+  @Override
+  public void discarded(EventHandler handler) {
+    DISCARDED.incrementAndGet(this);
+    countDown();
+  }
+  
+  /**
+   * The event couldn't be dispatched, so subscribers which hadn't reported
+   * may never report. The reference of tracker is released, a dispatcher
+   * which queued the event before the abort retained its own.
+   *
+   * @param cause the cause of abort
+   */
+  void abort(Throwable cause) {
+    release();
+    if (DONE.compareAndSet(this, 0, 1)) {
+      quiescence.exit();
+      if (report != null) {
+        report.completeExceptionally(cause);
+      }
+    }
+  }
+  
+  /*
+   * Most events never fail, so the attempts are allocated on first failure.
+   */
+  private ConcurrentMap<EventHandler, AtomicInteger> attempts() {
+    ConcurrentMap<EventHandler, AtomicInteger> attempts = this.attempts;
+    if (attempts == null) {
+      synchronized (this) {
+        attempts = this.attempts;
+        if (attempts == null) {
+          this.attempts = attempts = new ConcurrentHashMap<>();
+        }
+      }
+    }
+    return attempts;
+  }
+  
+  private Subscriber subscriberOf(EventHandler handler) {
+    final Subscriber[] subscribers = this.subscribers;
+    if (subscribers != null) {
+      for (Subscriber subscriber : subscribers) {
+        if (subscriber.handler() == handler) {
+          return subscriber;
+        }
+      }
+    }
+    return null;
+  }
+  
+  private void fail(EventHandler handler, Throwable cause) {
+    if (failures != null) {
+      failures.put(handler, cause);
+    }
+    countDown();
+  }
+  
+  private void release() {
+    final PendingEvent event = this.event;
+    if (event != null && RELEASED.compareAndSet(this, 0, 1)) {
+      event.release();
+    }
+  }
+  
+  /*
+   * The subscribers never access the event after they reported, so the
+   * reference of tracker is released after the last report. The dispatcher
+   * and the retries which still hold the event retained their own.
+   */
+  private void countDown() {
+    if (REMAINING.decrementAndGet(this) != 0) {
+      return;
+    }
+    release();
+    if (DONE.compareAndSet(this, 0, 1)) {
+      quiescence.exit();
+      if (report != null) {
+        report.complete(new DeliveryReport(delivered, discarded, failures));
+      }
+    }
+  }
+}
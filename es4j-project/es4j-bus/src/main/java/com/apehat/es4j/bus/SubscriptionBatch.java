@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus;
+
+import com.apehat.es4j.bus.subscriber.DeliveryPolicy;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A batch of subscriptions, which will be installed by
+ * {@link EventBus#subscribeAll(SubscriptionBatch)} at once: a publish of an
+ * event type sees either none or all of the batch subscribers of that type.
+ * <p>
+ * As the subscriptions of the same handler are only registered once, the
+ * first subscription of a handler in a batch wins.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class SubscriptionBatch {
+  
+  private final Map<EventHandler, Class<?>> subscriptions = new LinkedHashMap<>();
+  private final Map<EventHandler, DeliveryPolicy> policies = new HashMap<>();
+  
+  public SubscriptionBatch subscribe(EventHandler handler) {
+    return subscribe(Object.class, handler);
+  }
+  
+  public SubscriptionBatch subscribe(Class<?> type, EventHandler handler) {
+    return subscribe(type, handler, DeliveryPolicy.UNBOUNDED);
+  }
+  
+  public SubscriptionBatch subscribe(Class<?> type, EventHandler handler, DeliveryPolicy policy) {
+    Objects.requireNonNull(type, "Subscription type must not be null");
+    Objects.requireNonNull(handler, "Handler must not be null");
+    Objects.requireNonNull(policy, "Delivery policy must not be null");
+    if (subscriptions.putIfAbsent(handler, type) == null) {
+      policies.put(handler, policy);
+    }
+    return this;
+  }
+  
+  public int size() {
+    return subscriptions.size();
+  }
+  
+  Map<EventHandler, Class<?>> subscriptions() {
+    return Collections.unmodifiableMap(subscriptions);
+  }
+  
+  Map<EventHandler, DeliveryPolicy> policies() {
+    return Collections.unmodifiableMap(policies);
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.clone;
+
+import java.util.Map;
+
+/**
+ * Copies a value of a specific class, the copies of a deep clone are
+ * registered by source, so that shared and circular references are copied
+ * once.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+@FunctionalInterface
+interface Cloner {
+  
+  Object copy(Object source, Map<Object, Object> copies);
+}
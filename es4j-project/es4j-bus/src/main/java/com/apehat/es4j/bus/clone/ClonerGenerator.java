@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.clone;
+
+import com.apehat.es4j.bus.event.Immutability;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates a {@link GeneratedCloner} for a class with ASM.
+ * <p>
+ * The generated cloner reads each instance field of the source, including
+ * the inherited fields, and writes it to the copy by its offset. Primitive
+ * fields and the fields whose declared type is final and immutable are
+ * copied as is, the others are copied deeply.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class ClonerGenerator implements Opcodes {
+  
+  private static final String SUPER_NAME = Type.getInternalName(GeneratedCloner.class);
+  private static final String CONSTRUCTOR_DESCRIPTOR = Type.getMethodDescriptor(
+          Type.VOID_TYPE, Type.getType(Class.class), Type.getType(GeneratedCloningService.class));
+  private static final String COPY_FIELDS_DESCRIPTOR = "(Ljava/lang/Object;Ljava/lang/Object;Ljava/util/Map;)V";
+  private static final String COPY_OF_DESCRIPTOR = "(Ljava/lang/Object;Ljava/util/Map;)Ljava/lang/Object;";
+  private static final int SOURCE = 1;
+  private static final int COPY = 2;
+  private static final int COPIES = 3;
+  
+  private final ClonerClassLoader classLoader =
+          new ClonerClassLoader(GeneratedCloner.class.getClassLoader());
+  private final AtomicInteger generated = new AtomicInteger();
+  
+  GeneratedCloner generate(Class<?> type, GeneratedCloningService service) {
+    final String name = GeneratedCloner.class.getName() + "$" + type.getSimpleName()
+            + "$" + generated.incrementAndGet();
+    final Class<?> clonerClass = classLoader.define(name, bytecodeOf(name, fieldsOf(type)));
+    try {
+      final Constructor<?> constructor =
+              clonerClass.getConstructor(Class.class, GeneratedCloningService.class);
+      return (GeneratedCloner) constructor.newInstance(type, service);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Can't instantiate cloner of " + type.getName(), e);
+    }
+  }
+  
+  int generated() {
+    return generated.get();
+  }
+  
+  private static List<Field> fieldsOf(Class<?> type) {
+    final List<Field> fields = new ArrayList<>();
+    for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        if (!Modifier.isStatic(field.getModifiers())) {
+          fields.add(field);
+        }
+      }
+    }
+    return fields;
+  }
+  
+  private static byte[] bytecodeOf(String name, List<Field> fields) {
+    final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC,
+            name.replace('.', '/'), null, SUPER_NAME, null);
+    
+    final MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", CONSTRUCTOR_DESCRIPTOR, null, null);
+    init.visitCode();
+    init.visitVarInsn(ALOAD, 0);
+    init.visitVarInsn(ALOAD, 1);
+    init.visitVarInsn(ALOAD, 2);
+    init.visitMethodInsn(INVOKESPECIAL, SUPER_NAME, "<init>", CONSTRUCTOR_DESCRIPTOR, false);
+    init.visitInsn(RETURN);
+    init.visitMaxs(0, 0);
+    init.visitEnd();
+    
+    final MethodVisitor copy = cw.visitMethod(ACC_PROTECTED, "copyFields", COPY_FIELDS_DESCRIPTOR, null, null);
+    copy.visitCode();
+    for (Field field : fields) {
+      copyField(copy, field);
+    }
+    copy.visitInsn(RETURN);
+    copy.visitMaxs(0, 0);
+    copy.visitEnd();
+    
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+  
+  /*
+   * put<Type>(copy, offset, get<Type>(source, offset)), the value of a
+   * reference field is passed through copyOf(value, copies) unless it can
+   * be shared.
+   */
+  private static void copyField(MethodVisitor mv, Field field) {
+    final Long offset = GeneratedCloner.offsetOf(field);
+    final Class<?> fieldType = field.getType();
+    final String accessor = accessorOf(fieldType);
+    final String descriptor = fieldType.isPrimitive()
+            ? Type.getDescriptor(fieldType) : "Ljava/lang/Object;";
+    mv.visitVarInsn(ALOAD, COPY);
+    mv.visitLdcInsn(offset);
+    final boolean deep = !fieldType.isPrimitive() && !isShareable(fieldType);
+    if (deep) {
+      mv.visitVarInsn(ALOAD, 0);
+    }
+    mv.visitVarInsn(ALOAD, SOURCE);
+    mv.visitLdcInsn(offset);
+    mv.visitMethodInsn(INVOKESTATIC, SUPER_NAME, "get" + accessor, "(Ljava/lang/Object;J)" + descriptor, false);
+    if (deep) {
+      mv.visitVarInsn(ALOAD, COPIES);
+      mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, "copyOf", COPY_OF_DESCRIPTOR, false);
+    }
+    mv.visitMethodInsn(INVOKESTATIC, SUPER_NAME, "put" + accessor, "(Ljava/lang/Object;J" + descriptor + ")V", false);
+  }
+  
+  private static boolean isShareable(Class<?> type) {
+    return Modifier.isFinal(type.getModifiers()) && Immutability.isImmutable(type);
+  }
+  
+  private static String accessorOf(Class<?> type) {
+    if (!type.isPrimitive()) {
+      return "Object";
+    }
+    final String name = type.getName();
+    return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+  }
+  
+  private static final class ClonerClassLoader extends ClassLoader {
+    
+    ClonerClassLoader(ClassLoader parent) {
+      super(parent);
+    }
+    
+    Class<?> define(String name, byte[] bytecode) {
+      return defineClass(name, bytecode, 0, bytecode.length);
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.clone;
+
+import com.apehat.clone.CloningService;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A cloning service which copies the prototypes of each type by a
+ * {@link CloningStrategy}, so that each bus can use its own copy semantics.
+ * <p>
+ * A type is copied by the strategy specified for it, or for its nearest
+ * super class, or for the first interface it implements in the order
+ * specified, or by the default strategy otherwise. The strategy of each
+ * type is resolved once and cached.
+ * <p>
+ * Used by a bus through {@link com.apehat.es4j.bus.event.EventIdentityService}.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class CloningPolicy implements CloningService {
+  
+  private final CloningStrategy defaultStrategy;
+  private final Map<Class<?>, CloningStrategy> overrides;
+  private final Map<CloningStrategy, CloningService> services = new EnumMap<>(CloningStrategy.class);
+  private final ClassValue<CloningService> resolved = new ClassValue<CloningService>() {
+    @Override
+    protected CloningService computeValue(Class<?> type) {
+      return services.get(strategyOf(type));
+    }
+  };
+  
+  public CloningPolicy(CloningStrategy defaultStrategy) {
+    this(defaultStrategy, new LinkedHashMap<>());
+  }
+  
+  /**
+   * @param defaultStrategy the strategy of the types without override
+   * @param overrides the strategies of specified types and their subtypes
+   */
+  public CloningPolicy(CloningStrategy defaultStrategy, Map<Class<?>, CloningStrategy> overrides) {
+    this.defaultStrategy = Objects.requireNonNull(defaultStrategy, "Default strategy must not be null");
+    this.overrides = new LinkedHashMap<>(Objects.requireNonNull(overrides, "Overrides must not be null"));
+    services.put(defaultStrategy, defaultStrategy.newService());
+    for (Map.Entry<Class<?>, CloningStrategy> override : this.overrides.entrySet()) {
+      final CloningStrategy strategy = Objects.requireNonNull(override.getValue(),
+              "Strategy of " + override.getKey() + " must not be null");
+      services.computeIfAbsent(strategy, CloningStrategy::newService);
+    }
+  }
+  
+  @Override
+  public <T> T deepClone(T prototype) {
+    if (prototype == null) {
+      return null;
+    }
+    return resolved.get(prototype.getClass()).deepClone(prototype);
+  }
+  
+  public CloningStrategy strategyOf(Class<?> type) {
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      final CloningStrategy strategy = overrides.get(c);
+      if (strategy != null) {
+        return strategy;
+      }
+    }
+    for (Map.Entry<Class<?>, CloningStrategy> override : overrides.entrySet()) {
+      if (override.getKey().isAssignableFrom(type)) {
+        return override.getValue();
+      }
+    }
+    return defaultStrategy;
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.clone;
+
+import com.apehat.clone.CloningService;
+import com.apehat.clone.DefaultCloningService;
+
+/**
+ * The strategies to copy the prototypes of events.
+ *
+ * @author hanpengfei
+ * @see CloningPolicy
+ * @since 1.0
+ */
+public enum CloningStrategy {
+  
+  /**
+   * Don't copy, the prototype is shared with the submitter.
+   */
+  NONE {
+    @Override
+    CloningService newService() {
+      return new CloningService() {
+        @Override
+        public <T> T deepClone(T prototype) {
+          return prototype;
+        }
+      };
+    }
+  },
+  
+  /**
+   * Copy the prototype only, the values it refers to are shared.
+   */
+  SHALLOW {
+    @Override
+    CloningService newService() {
+      return new GeneratedCloningService(new DefaultCloningService(), true);
+    }
+  },
+  
+  /**
+   * Copy deeply by reflection.
+   */
+  REFLECTIVE {
+    @Override
+    CloningService newService() {
+      return new DefaultCloningService();
+    }
+  },
+  
+  /**
+   * Copy deeply by the cloners generated for each class.
+   *
+   * @see GeneratedCloningService
+   */
+  GENERATED {
+    @Override
+    CloningService newService() {
+      return new GeneratedCloningService();
+    }
+  },
+  
+  /**
+   * Copy deeply by java serialization, the prototype must be serializable.
+   *
+   * @see SerializationCloningService
+   */
+  SERIALIZED {
+    @Override
+    CloningService newService() {
+      return new SerializationCloningService();
+    }
+  };
+  
+  abstract CloningService newService();
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.clone;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Copies a collection or a map of the platform through its public
+ * constructor, then adds the copied elements, since copying the internal
+ * fields would break the hashed collections whose keys are copied.
+ * <p>
+ * A sorted collection is constructed with the comparator of the source.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class CollectionCloner implements Cloner {
+  
+  private final MethodHandle constructor;
+  private final boolean sorted;
+  private final GeneratedCloningService service;
+  
+  private CollectionCloner(MethodHandle constructor, boolean sorted, GeneratedCloningService service) {
+    this.constructor = constructor;
+    this.sorted = sorted;
+    this.service = service;
+  }
+  
+  /**
+   * Returns the cloner of the specified collection or map type, or null if
+   * the type isn't a collection, or can't be constructed publicly.
+   */
+  static CollectionCloner of(Class<?> type, GeneratedCloningService service) {
+    if (!Collection.class.isAssignableFrom(type) && !Map.class.isAssignableFrom(type)
+            || !Modifier.isPublic(type.getModifiers())) {
+      return null;
+    }
+    final boolean sorted = SortedMap.class.isAssignableFrom(type) || SortedSet.class.isAssignableFrom(type);
+    final MethodType signature = sorted
+            ? MethodType.methodType(void.class, Comparator.class) : MethodType.methodType(void.class);
+    try {
+      final MethodHandle constructor = MethodHandles.publicLookup().findConstructor(type, signature);
+      return new CollectionCloner(constructor.asType(constructor.type().changeReturnType(Object.class)),
+              sorted, service);
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    }
+  }
+  
+  @Override
+  @SuppressWarnings("unchecked")
+  public Object copy(Object source, Map<Object, Object> copies) {
+    final Object copy = newInstance(source);
+    copies.put(source, copy);
+    if (source instanceof Map) {
+      final Map<Object, Object> map = (Map<Object, Object>) copy;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) source).entrySet()) {
+        map.put(service.copy(entry.getKey(), copies), service.copy(entry.getValue(), copies));
+      }
+    } else {
+      final Collection<Object> collection = (Collection<Object>) copy;
+      for (Object element : (Collection<?>) source) {
+        collection.add(service.copy(element, copies));
+      }
+    }
+    return copy;
+  }
+  
+  private Object newInstance(Object source) {
+    try {
+      if (!sorted) {
+        return constructor.invokeExact();
+      }
+      final Comparator<?> comparator = source instanceof SortedMap
+              ? ((SortedMap<?, ?>) source).comparator() : ((SortedSet<?>) source).comparator();
+      return constructor.invokeExact(comparator);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException("Can't construct " + source.getClass().getName(), e);
+    }
+  }
+}
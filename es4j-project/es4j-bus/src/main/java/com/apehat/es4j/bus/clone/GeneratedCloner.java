@@ -0,0 +1,310 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.clone;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Map;
+
+/**
+ * The super class of the generated cloners.
+ * <p>
+ * A generated cloner copies the instance fields of a single class in
+ * straight-line code, through the field accessors of this class with the
+ * field offsets inlined as constants, so no reflection is involved on
+ * clone. Instances are allocated without calling any constructor.
+ * <p>
+ * This class is public only to be extended by the generated classes, which
+ * are defined by their own class loader.
+ * <p>
+ * This is the only class of the bus using {@code sun.misc.Unsafe}, to
+ * allocate the copies and to access the fields by offset. It is looked up
+ * by name and called through constant method handles, which the JIT inlines
+ * like direct calls, so the bus compiles against the Java 8 API without
+ * referring to the unsupported class. The generated cloners reach it only
+ * through the static accessors below, so moving off {@code Unsafe} changes
+ * this class alone.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public abstract class GeneratedCloner {
+  
+  private static final MethodHandle ALLOCATE_INSTANCE;
+  private static final MethodHandle OBJECT_FIELD_OFFSET;
+  private static final MethodHandle GET_BOOLEAN;
+  private static final MethodHandle PUT_BOOLEAN;
+  private static final MethodHandle GET_BYTE;
+  private static final MethodHandle PUT_BYTE;
+  private static final MethodHandle GET_CHAR;
+  private static final MethodHandle PUT_CHAR;
+  private static final MethodHandle GET_SHORT;
+  private static final MethodHandle PUT_SHORT;
+  private static final MethodHandle GET_INT;
+  private static final MethodHandle PUT_INT;
+  private static final MethodHandle GET_LONG;
+  private static final MethodHandle PUT_LONG;
+  private static final MethodHandle GET_FLOAT;
+  private static final MethodHandle PUT_FLOAT;
+  private static final MethodHandle GET_DOUBLE;
+  private static final MethodHandle PUT_DOUBLE;
+  private static final MethodHandle GET_OBJECT;
+  private static final MethodHandle PUT_OBJECT;
+  
+  static {
+    try {
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      final Object unsafe = theUnsafe.get(null);
+      final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      ALLOCATE_INSTANCE = lookup.findVirtual(unsafeClass, "allocateInstance",
+              MethodType.methodType(Object.class, Class.class)).bindTo(unsafe);
+      OBJECT_FIELD_OFFSET = lookup.findVirtual(unsafeClass, "objectFieldOffset",
+              MethodType.methodType(long.class, Field.class)).bindTo(unsafe);
+      GET_BOOLEAN = accessor(lookup, unsafe, "getBoolean", MethodType.methodType(boolean.class, Object.class, long.class));
+      PUT_BOOLEAN = accessor(lookup, unsafe, "putBoolean", MethodType.methodType(void.class, Object.class, long.class, boolean.class));
+      GET_BYTE = accessor(lookup, unsafe, "getByte", MethodType.methodType(byte.class, Object.class, long.class));
+      PUT_BYTE = accessor(lookup, unsafe, "putByte", MethodType.methodType(void.class, Object.class, long.class, byte.class));
+      GET_CHAR = accessor(lookup, unsafe, "getChar", MethodType.methodType(char.class, Object.class, long.class));
+      PUT_CHAR = accessor(lookup, unsafe, "putChar", MethodType.methodType(void.class, Object.class, long.class, char.class));
+      GET_SHORT = accessor(lookup, unsafe, "getShort", MethodType.methodType(short.class, Object.class, long.class));
+      PUT_SHORT = accessor(lookup, unsafe, "putShort", MethodType.methodType(void.class, Object.class, long.class, short.class));
+      GET_INT = accessor(lookup, unsafe, "getInt", MethodType.methodType(int.class, Object.class, long.class));
+      PUT_INT = accessor(lookup, unsafe, "putInt", MethodType.methodType(void.class, Object.class, long.class, int.class));
+      GET_LONG = accessor(lookup, unsafe, "getLong", MethodType.methodType(long.class, Object.class, long.class));
+      PUT_LONG = accessor(lookup, unsafe, "putLong", MethodType.methodType(void.class, Object.class, long.class, long.class));
+      GET_FLOAT = accessor(lookup, unsafe, "getFloat", MethodType.methodType(float.class, Object.class, long.class));
+      PUT_FLOAT = accessor(lookup, unsafe, "putFloat", MethodType.methodType(void.class, Object.class, long.class, float.class));
+      GET_DOUBLE = accessor(lookup, unsafe, "getDouble", MethodType.methodType(double.class, Object.class, long.class));
+      PUT_DOUBLE = accessor(lookup, unsafe, "putDouble", MethodType.methodType(void.class, Object.class, long.class, double.class));
+      GET_OBJECT = accessor(lookup, unsafe, "getObject", MethodType.methodType(Object.class, Object.class, long.class));
+      PUT_OBJECT = accessor(lookup, unsafe, "putObject", MethodType.methodType(void.class, Object.class, long.class, Object.class));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+  
+  private final Class<?> type;
+  private final GeneratedCloningService service;
+  
+  protected GeneratedCloner(Class<?> type, GeneratedCloningService service) {
+    this.type = type;
+    this.service = service;
+  }
+  
+  final Object copy(Object source, Map<Object, Object> copies) {
+    final Object copy;
+    try {
+      copy = (Object) ALLOCATE_INSTANCE.invokeExact(type);
+    } catch (InstantiationException e) {
+      throw new IllegalStateException("Can't instantiate " + type.getName(), e);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+    copies.put(source, copy);
+    copyFields(source, copy, copies);
+    return copy;
+  }
+  
+  static long offsetOf(Field field) {
+    try {
+      return (long) OBJECT_FIELD_OFFSET.invokeExact(field);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  /**
+   * Copies all instance fields of source to copy, the reference fields
+   * which may refer to mutable values are copied by {@link #copyOf(Object,
+   * Map)}.
+   *
+   * @param source the object to be cloned
+   * @param copy the allocated copy
+   * @param copies the copies of the deep clone, by source
+   */
+  protected abstract void copyFields(Object source, Object copy, Map<Object, Object> copies);
+  
+  protected final Object copyOf(Object value, Map<Object, Object> copies) {
+    return service.copy(value, copies);
+  }
+  
+  protected static boolean getBoolean(Object o, long offset) {
+    try {
+      return (boolean) GET_BOOLEAN.invokeExact(o, offset);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static void putBoolean(Object o, long offset, boolean value) {
+    try {
+      PUT_BOOLEAN.invokeExact(o, offset, value);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static byte getByte(Object o, long offset) {
+    try {
+      return (byte) GET_BYTE.invokeExact(o, offset);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static void putByte(Object o, long offset, byte value) {
+    try {
+      PUT_BYTE.invokeExact(o, offset, value);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static char getChar(Object o, long offset) {
+    try {
+      return (char) GET_CHAR.invokeExact(o, offset);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static void putChar(Object o, long offset, char value) {
+    try {
+      PUT_CHAR.invokeExact(o, offset, value);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static short getShort(Object o, long offset) {
+    try {
+      return (short) GET_SHORT.invokeExact(o, offset);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static void putShort(Object o, long offset, short value) {
+    try {
+      PUT_SHORT.invokeExact(o, offset, value);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static int getInt(Object o, long offset) {
+    try {
+      return (int) GET_INT.invokeExact(o, offset);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static void putInt(Object o, long offset, int value) {
+    try {
+      PUT_INT.invokeExact(o, offset, value);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static long getLong(Object o, long offset) {
+    try {
+      return (long) GET_LONG.invokeExact(o, offset);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static void putLong(Object o, long offset, long value) {
+    try {
+      PUT_LONG.invokeExact(o, offset, value);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static float getFloat(Object o, long offset) {
+    try {
+      return (float) GET_FLOAT.invokeExact(o, offset);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static void putFloat(Object o, long offset, float value) {
+    try {
+      PUT_FLOAT.invokeExact(o, offset, value);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static double getDouble(Object o, long offset) {
+    try {
+      return (double) GET_DOUBLE.invokeExact(o, offset);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static void putDouble(Object o, long offset, double value) {
+    try {
+      PUT_DOUBLE.invokeExact(o, offset, value);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static Object getObject(Object o, long offset) {
+    try {
+      return (Object) GET_OBJECT.invokeExact(o, offset);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  protected static void putObject(Object o, long offset, Object value) {
+    try {
+      PUT_OBJECT.invokeExact(o, offset, value);
+    } catch (Throwable e) {
+      throw unchecked(e);
+    }
+  }
+  
+  private static MethodHandle accessor(MethodHandles.Lookup lookup, Object unsafe, String name,
+                                       MethodType type) throws ReflectiveOperationException {
+    return lookup.findVirtual(unsafe.getClass(), name, type).bindTo(unsafe);
+  }
+  
+  /*
+   * The accessors of Unsafe throw no checked exception.
+   */
+  private static RuntimeException unchecked(Throwable e) {
+    if (e instanceof RuntimeException) {
+      return (RuntimeException) e;
+    }
+    if (e instanceof Error) {
+      throw (Error) e;
+    }
+    return new IllegalStateException(e);
+  }
+}
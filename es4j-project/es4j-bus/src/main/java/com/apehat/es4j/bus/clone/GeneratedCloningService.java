@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.clone;
+
+import com.apehat.clone.CloningService;
+import com.apehat.clone.DefaultCloningService;
+import com.apehat.es4j.bus.event.Immutability;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A cloning service which generates and caches a cloner for each class on
+ * first use.
+ * <p>
+ * Immutable values are shared, see {@link Immutability}. The classes of the
+ * application are copied by generated cloners, with straight-line field
+ * copies rather than reflection, see {@link GeneratedCloner}. Arrays are
+ * copied element by element, and the collections and maps of the platform
+ * are rebuilt through their public constructors. The values which can't be
+ * copied this way, like the other platform classes, or the classes whose
+ * cloner can't be generated, are cloned by the fallback service.
+ * <p>
+ * Shared and circular references within a clone are preserved. A shallow
+ * service copies the prototype only, and shares the values it refers to.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class GeneratedCloningService implements CloningService {
+  
+  private static final Logger LOGGER = LoggerFactory.getLogger(GeneratedCloningService.class);
+  
+  private static final String[] PLATFORM_PACKAGES = {"java.", "javax.", "jdk.", "sun.", "com.sun."};
+  
+  private static final Cloner SHARED = (source, copies) -> source;
+  
+  private final CloningService fallback;
+  private final boolean shallow;
+  private final ClonerGenerator generator = new ClonerGenerator();
+  private final ClassValue<Cloner> cloners = new ClassValue<Cloner>() {
+    @Override
+    protected Cloner computeValue(Class<?> type) {
+      return clonerOf(type);
+    }
+  };
+  
+  public GeneratedCloningService() {
+    this(new DefaultCloningService());
+  }
+  
+  public GeneratedCloningService(CloningService fallback) {
+    this(fallback, false);
+  }
+  
+  GeneratedCloningService(CloningService fallback, boolean shallow) {
+    this.fallback = Objects.requireNonNull(fallback, "Fallback cloning service must not be null");
+    this.shallow = shallow;
+  }
+  
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T deepClone(T prototype) {
+    if (prototype == null) {
+      return null;
+    }
+    return (T) copy(prototype, new IdentityHashMap<>());
+  }
+  
+  /**
+   * Returns the count of cloner classes generated by this service.
+   *
+   * @return the count of generated cloners
+   */
+  public int generated() {
+    return generator.generated();
+  }
+  
+  Object copy(Object value, Map<Object, Object> copies) {
+    if (value == null) {
+      return null;
+    }
+    final Object copied = copies.get(value);
+    if (copied != null) {
+      return copied;
+    }
+    // the prototype is registered before its fields are copied
+    if (shallow && !copies.isEmpty()) {
+      return value;
+    }
+    return cloners.get(value.getClass()).copy(value, copies);
+  }
+  
+  private Cloner clonerOf(Class<?> type) {
+    if (Immutability.isImmutable(type)) {
+      return SHARED;
+    }
+    if (type.isArray()) {
+      return type.getComponentType().isPrimitive() ? this::copyPrimitiveArray : this::copyArray;
+    }
+    if (isPlatformType(type)) {
+      final Cloner cloner = CollectionCloner.of(type, this);
+      return cloner != null ? cloner : this::cloneByFallback;
+    }
+    for (Class<?> c = type.getSuperclass(); c != Object.class; c = c.getSuperclass()) {
+      if (isPlatformType(c)) {
+        return this::cloneByFallback;
+      }
+    }
+    try {
+      return generator.generate(type, this)::copy;
+    } catch (RuntimeException | LinkageError e) {
+      LOGGER.warn("Can't generate cloner of {}, fallback to {}", type.getName(), fallback, e);
+      return this::cloneByFallback;
+    }
+  }
+  
+  private Object copyArray(Object source, Map<Object, Object> copies) {
+    final Object[] copy = ((Object[]) source).clone();
+    copies.put(source, copy);
+    for (int i = 0; i < copy.length; i++) {
+      copy[i] = copy(copy[i], copies);
+    }
+    return copy;
+  }
+  
+  private Object copyPrimitiveArray(Object source, Map<Object, Object> copies) {
+    final Object copy;
+    if (source instanceof int[]) {
+      copy = ((int[]) source).clone();
+    } else if (source instanceof long[]) {
+      copy = ((long[]) source).clone();
+    } else if (source instanceof byte[]) {
+      copy = ((byte[]) source).clone();
+    } else if (source instanceof char[]) {
+      copy = ((char[]) source).clone();
+    } else if (source instanceof double[]) {
+      copy = ((double[]) source).clone();
+    } else if (source instanceof float[]) {
+      copy = ((float[]) source).clone();
+    } else if (source instanceof short[]) {
+      copy = ((short[]) source).clone();
+    } else {
+      copy = ((boolean[]) source).clone();
+    }
+    copies.put(source, copy);
+    return copy;
+  }
+  
+  private Object cloneByFallback(Object source, Map<Object, Object> copies) {
+    final Object copy = fallback.deepClone(source);
+    copies.put(source, copy);
+    return copy;
+  }
+  
+  private static boolean isPlatformType(Class<?> type) {
+    final String name = type.getName();
+    for (String prefix : PLATFORM_PACKAGES) {
+      if (name.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
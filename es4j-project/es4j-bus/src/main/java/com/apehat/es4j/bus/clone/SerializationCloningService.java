@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.clone;
+
+import com.apehat.clone.CloningService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+
+/**
+ * A cloning service which copies by java serialization, so the prototypes
+ * must be serializable. The classes are resolved by the class loader of
+ * the prototype first.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class SerializationCloningService implements CloningService {
+  
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T deepClone(T prototype) {
+    if (prototype == null) {
+      return null;
+    }
+    if (!(prototype instanceof Serializable)) {
+      throw new IllegalArgumentException(prototype.getClass().getName() + " is not serializable");
+    }
+    try {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeObject(prototype);
+      }
+      final ClassLoader classLoader = prototype.getClass().getClassLoader();
+      try (ObjectInputStream in = new ClassLoaderObjectInputStream(
+              new ByteArrayInputStream(bytes.toByteArray()), classLoader)) {
+        return (T) in.readObject();
+      }
+    } catch (NotSerializableException e) {
+      throw new IllegalArgumentException(
+              prototype.getClass().getName() + " refers to a value which is not serializable", e);
+    } catch (IOException | ClassNotFoundException e) {
+      throw new IllegalStateException("Can't clone " + prototype.getClass().getName(), e);
+    }
+  }
+  
+  private static final class ClassLoaderObjectInputStream extends ObjectInputStream {
+    
+    private final ClassLoader classLoader;
+    
+    ClassLoaderObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+      super(in);
+      this.classLoader = classLoader;
+    }
+    
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      if (classLoader != null) {
+        try {
+          return Class.forName(desc.getName(), false, classLoader);
+        } catch (ClassNotFoundException e) {
+          // resolve by default
+        }
+      }
+      return super.resolveClass(desc);
+    }
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread pool which grows and shrinks its workers within the bounds, by
+ * the queue depth, handler latency and throughput it observed.
+ * <p>
+ * On each control tick, the queue depth, the throughput, the task latency
+ * and the utilization of workers are sampled and smoothed by an
+ * exponentially weighted moving average. The utilization is the busy time of
+ * the tick divided by the available time, the tick length times the pool
+ * size. The busy time of a task is accounted when it completes, so the
+ * utilization of a tick may lag behind for tasks longer than a tick.
+ * <p>
+ * By Little's law, the workers needed to run the observed throughput at the
+ * observed latency, for a target utilization, are throughput * latency /
+ * target utilization. The pool grows by half of its size, or to the needed
+ * workers if more, while tasks queue up or the utilization is high. It
+ * shrinks towards the needed workers, only after the utilization was low
+ * for several consecutive ticks. No change is made during the cooldown
+ * after a change, so the pool doesn't oscillate.
+ * <p>
+ * Each change is logged and kept as a {@link Decision}, with the samples it
+ * was made from.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor {
+  
+  private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveThreadPoolExecutor.class);
+  
+  private static final double ALPHA = 0.5;
+  private static final double HIGH_UTILIZATION = 0.85;
+  private static final double LOW_UTILIZATION = 0.5;
+  private static final double TARGET_UTILIZATION = 0.7;
+  private static final int SHRINK_TICKS = 3;
+  private static final int COOLDOWN_TICKS = 2;
+  private static final int HISTORY = 64;
+  
+  private final int minThreads;
+  private final int maxThreads;
+  private final ScheduledExecutorService controller;
+  private final ThreadLocal<Long> startedOn = new ThreadLocal<>();
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder busyNanos = new LongAdder();
+  private final Deque<Decision> decisions = new ArrayDeque<>();
+  
+  /* Accessed by control loop only */
+  private long lastTick = System.nanoTime();
+  private long lastCompleted;
+  private long lastBusyNanos;
+  private double queueDepth;
+  private double utilization;
+  private double latencyNanos;
+  private double throughput;
+  private int lowTicks;
+  private int cooldown;
+  
+  public AdaptiveThreadPoolExecutor(int minThreads, int maxThreads, long interval, TimeUnit unit) {
+    this(minThreads, maxThreads, interval, unit, Executors.defaultThreadFactory());
+  }
+  
+  public AdaptiveThreadPoolExecutor(int minThreads, int maxThreads, long interval, TimeUnit unit,
+                                    ThreadFactory threadFactory) {
+    super(minThreads, maxThreads, 0, TimeUnit.NANOSECONDS, new LinkedBlockingQueue<>(), threadFactory);
+    if (minThreads < 1) {
+      throw new IllegalArgumentException("Min threads must be positive");
+    }
+    if (interval <= 0) {
+      throw new IllegalArgumentException("Interval must be positive");
+    }
+    setMaximumPoolSize(minThreads);
+    this.minThreads = minThreads;
+    this.maxThreads = maxThreads;
+    this.controller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "es4j-adaptive-pool-controller");
+      thread.setDaemon(true);
+      return thread;
+    });
+    controller.scheduleWithFixedDelay(this::tick, interval, interval, unit);
+  }
+  
+  @Override
+  protected void beforeExecute(Thread thread, Runnable task) {
+    super.beforeExecute(thread, task);
+    startedOn.set(System.nanoTime());
+  }
+  
+  @Override
+  protected void afterExecute(Runnable task, Throwable failure) {
+    final Long started = startedOn.get();
+    if (started != null) {
+      busyNanos.add(System.nanoTime() - started);
+      completed.increment();
+    }
+    super.afterExecute(task, failure);
+  }
+  
+  @Override
+  protected void terminated() {
+    controller.shutdownNow();
+    super.terminated();
+  }
+  
+  /*
+   * A control tick, which samples the pool, and resizes it if needed.
+   */
+  synchronized void tick() {
+    try {
+      final long now = System.nanoTime();
+      final long elapsed = Math.max(now - lastTick, 1);
+      final long completed = this.completed.sum();
+      final long busy = this.busyNanos.sum();
+      final long completedDelta = completed - lastCompleted;
+      final int size = getCorePoolSize();
+      
+      queueDepth = smooth(queueDepth, getQueue().size());
+      utilization = smooth(utilization, Math.min(1, (double) (busy - lastBusyNanos) / ((double) elapsed * size)));
+      throughput = smooth(throughput, completedDelta * 1e9 / elapsed);
+      if (completedDelta > 0) {
+        latencyNanos = smooth(latencyNanos, (double) (busy - lastBusyNanos) / completedDelta);
+      }
+      lastTick = now;
+      lastCompleted = completed;
+      lastBusyNanos = busy;
+      decide(size);
+    } catch (RuntimeException e) {
+      LOGGER.warn("Adaptive pool control failure", e);
+    }
+  }
+  
+  private static double smooth(double average, double sample) {
+    return average + ALPHA * (sample - average);
+  }
+  
+  private void decide(int size) {
+    if (cooldown > 0) {
+      cooldown--;
+      return;
+    }
+    if (size < maxThreads && (queueDepth >= 1 || utilization > HIGH_UTILIZATION)) {
+      lowTicks = 0;
+      resize(size, Math.min(maxThreads, Math.max(needed(), size + Math.max(1, size / 2))),
+              queueDepth >= 1 ? "tasks queue up" : "high utilization");
+      return;
+    }
+    if (size > minThreads && queueDepth < 1 && utilization < LOW_UTILIZATION) {
+      if (++lowTicks < SHRINK_TICKS) {
+        return;
+      }
+      lowTicks = 0;
+      resize(size, Math.max(minThreads, Math.max(needed(), size - Math.max(1, size / 4))), "low utilization");
+      return;
+    }
+    lowTicks = 0;
+  }
+  
+  /*
+   * Little's law, the mean number of busy workers is the throughput times
+   * the latency.
+   */
+  private int needed() {
+    return (int) Math.ceil(throughput * latencyNanos / 1e9 / TARGET_UTILIZATION);
+  }
+  
+  private void resize(int from, int to, String reason) {
+    if (from == to) {
+      return;
+    }
+    if (to > from) {
+      setMaximumPoolSize(to);
+      setCorePoolSize(to);
+    } else {
+      setCorePoolSize(to);
+      setMaximumPoolSize(to);
+    }
+    cooldown = COOLDOWN_TICKS;
+    final Decision decision = new Decision(System.currentTimeMillis(), from, to, reason,
+            queueDepth, utilization, latencyNanos, throughput);
+    synchronized (decisions) {
+      if (decisions.size() == HISTORY) {
+        decisions.pollFirst();
+      }
+      decisions.offerLast(decision);
+    }
+    LOGGER.info("{}", decision);
+  }
+  
+  public int minThreads() {
+    return minThreads;
+  }
+  
+  public int maxThreads() {
+    return maxThreads;
+  }
+  
+  /**
+   * Returns the recent decisions, from the oldest.
+   *
+   * @return the recent decisions
+   */
+  public List<Decision> decisions() {
+    synchronized (decisions) {
+      return new ArrayList<>(decisions);
+    }
+  }
+  
+  /**
+   * A resize of the pool, and the smoothed samples it was made from.
+   */
+  public static final class Decision {
+    
+    private final long decidedOn;
+    private final int from;
+    private final int to;
+    private final String reason;
+    private final double queueDepth;
+    private final double utilization;
+    private final double latencyNanos;
+    private final double throughput;
+    
+    Decision(long decidedOn, int from, int to, String reason, double queueDepth,
+             double utilization, double latencyNanos, double throughput) {
+      this.decidedOn = decidedOn;
+      this.from = from;
+      this.to = to;
+      this.reason = reason;
+      this.queueDepth = queueDepth;
+      this.utilization = utilization;
+      this.latencyNanos = latencyNanos;
+      this.throughput = throughput;
+    }
+    
+    public long decidedOn() {
+      return decidedOn;
+    }
+    
+    public int from() {
+      return from;
+    }
+    
+    public int to() {
+      return to;
+    }
+    
+    public String reason() {
+      return reason;
+    }
+    
+    public double queueDepth() {
+      return queueDepth;
+    }
+    
+    public double utilization() {
+      return utilization;
+    }
+    
+    public double latencyNanos() {
+      return latencyNanos;
+    }
+    
+    /**
+     * Returns the completed tasks per second.
+     *
+     * @return the throughput
+     */
+    public double throughput() {
+      return throughput;
+    }
+    
+    @Override
+    public String toString() {
+      return String.format("Resize pool %d -> %d, %s (queue depth %.1f, utilization %.2f, "
+              + "latency %.3fms, throughput %.1f/s)", from, to, reason, queueDepth, utilization,
+              latencyNanos / 1e6, throughput);
+    }
+  }
+}
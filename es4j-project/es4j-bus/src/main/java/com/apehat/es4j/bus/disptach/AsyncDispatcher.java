@@ -22,53 +22,143 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Objects;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Dispatch events by the specified pool.
+ * <p>
+ * The subscribers of an event are split into chunks of {@code chunkSize}
+ * subscribers, and each chunk is called by its own task, so that the slow
+ * subscribers of an event can be spread on all threads of the pool. By
+ * default, all subscribers of an event are called by a single task.
+ * <p>
+ * If the pool rejects a chunk, the rejection is thrown by
+ * {@link #dispatch(PendingEvent, Subscriber[])}, while the chunks which were
+ * submitted before it still run, so their subscribers may already have been
+ * called.
+ *
  * @author hanpengfei
  * @since 1.0
  */
-public class AsyncDispatcher {
+public class AsyncDispatcher extends Dispatcher {
   
   private static final Logger LOGGER = LoggerFactory.getLogger(AsyncDispatcher.class);
   private final ExecutorService pool;
+  private final int chunkSize;
   
   public AsyncDispatcher(ExecutorService pool) {
+    this(pool, Integer.MAX_VALUE);
+  }
+  
+  public AsyncDispatcher(ExecutorService pool, int chunkSize) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("Chunk size must be positive");
+    }
     this.pool = Objects.requireNonNull(pool, "Pool must not be null");
+    this.chunkSize = chunkSize;
+  }
+  
+  @Override
+  public void dispatch(PendingEvent event, Subscriber[] subscribers) {
+    dispatch(event, subscribers, null);
   }
   
-  public void dispatch(PendingEvent event, Set<Subscriber> subscribers) {
-    if (subscribers.isEmpty()) {
-      if (LOGGER.isWarnEnabled()) {
-        LOGGER.warn("Non subscriber for " + event);
+  /**
+   * Dispatch the event like {@link #dispatch(PendingEvent, Subscriber[])},
+   * and returns a future which will be completed after all subscribers
+   * were called. If the pool rejected a chunk, the future is completed
+   * exceptionally at once, the chunks submitted before may still be running
+   * or done.
+   *
+   * @param event the event to dispatch
+   * @param subscribers the subscribers of event
+   * @return the future of completion
+   */
+  public CompletableFuture<Void> submit(PendingEvent event, Subscriber[] subscribers) {
+    final CompletableFuture<Void> completion = new CompletableFuture<>();
+    try {
+      dispatch(event, subscribers, new Completion(chunks(subscribers.length), completion));
+    } catch (RuntimeException e) {
+      completion.completeExceptionally(e);
+    }
+    return completion;
+  }
+  
+  private void dispatch(PendingEvent event, Subscriber[] subscribers, Completion completion) {
+    int from = 0;
+    while (from < subscribers.length) {
+      final int to = (int) Math.min((long) from + chunkSize, subscribers.length);
+      event.retain();
+      try {
+        pool.execute(new AsyncDispatchTask(subscribers, from, to, event, completion));
+      } catch (RuntimeException e) {
+        event.release();
+        throw e;
+      }
+      from = to;
+    }
+  }
+  
+  private int chunks(int subscribers) {
+    return (int) (((long) subscribers + chunkSize - 1) / chunkSize);
+  }
+  
+  private static class Completion {
+    
+    private final AtomicInteger remaining;
+    private final CompletableFuture<Void> future;
+    
+    Completion(int chunks, CompletableFuture<Void> future) {
+      this.remaining = new AtomicInteger(chunks);
+      this.future = future;
+      if (chunks == 0) {
+        future.complete(null);
+      }
+    }
+    
+    void chunkDone() {
+      if (remaining.decrementAndGet() == 0) {
+        future.complete(null);
       }
-      return;
     }
-    AsyncDispatchTask task = new AsyncDispatchTask(subscribers, event);
-    pool.submit(task);
   }
   
   private static class AsyncDispatchTask implements Runnable {
     
-    private final Set<Subscriber> subscribers;
+    private final Subscriber[] subscribers;
+    private final int from;
+    private final int to;
     private final PendingEvent event;
+    private final Completion completion;
     
-    AsyncDispatchTask(Set<Subscriber> subscribers, PendingEvent event) {
+    AsyncDispatchTask(Subscriber[] subscribers, int from, int to,
+                      PendingEvent event, Completion completion) {
       assert event != null;
       assert subscribers != null;
-      assert !subscribers.isEmpty();
+      assert from < to;
       this.subscribers = subscribers;
+      this.from = from;
+      this.to = to;
       this.event = event;
+      this.completion = completion;
     }
     
     @Override
     public void run() {
-      for (Subscriber subscriber : subscribers) {
-        try {
-          subscriber.onEvent(event);
-        } catch (RuntimeException e) {
-          LOGGER.warn("Async dispatch failure", e);
+      try {
+        for (int i = from; i < to; i++) {
+          try {
+            subscribers[i].onEvent(event);
+          } catch (RuntimeException e) {
+            LOGGER.warn("Async dispatch failure", e);
+          }
+        }
+      } finally {
+        event.release();
+        if (completion != null) {
+          completion.chunkDone();
         }
       }
     }
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.BatchEventHandler;
+import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import com.apehat.es4j.bus.timer.Timeout;
+import com.apehat.es4j.bus.timer.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dispatch events to the subscribers whose handler is a
+ * {@link BatchEventHandler} in batches, and the other events by the
+ * delegate dispatcher.
+ * <p>
+ * The events of each batch subscriber are accumulated, and drained by a task
+ * of the pool when the batch reached the max batch size, or the first event
+ * of it waited for the max linger time. A drain delivers one batch, so the
+ * batch handler is called by at most one thread at any time, with the events
+ * in the order they were dispatched. The events of a batch are reported as
+ * delivered or failed after the batch handler returned, see
+ * {@link Subscriber#onEvents(List)}.
+ * <p>
+ * An event which is rejected for a batch subscriber, because the pool
+ * rejected its drain, is reported as discarded for that subscriber only.
+ * Events which were accumulated before stay queued until its next drain.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class BatchingDispatcher extends Dispatcher {
+  
+  private static final Logger LOGGER = LoggerFactory.getLogger(BatchingDispatcher.class);
+  
+  private final Dispatcher delegate;
+  private final ExecutorService pool;
+  private final TimingWheel timingWheel;
+  private final int maxBatchSize;
+  private final long maxLingerNanos;
+  private final ConcurrentMap<Subscriber, Batch> batches = new ConcurrentHashMap<>();
+  
+  private final LongAdder drained = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  
+  public BatchingDispatcher(ExecutorService pool, TimingWheel timingWheel,
+                            int maxBatchSize, long maxLinger, TimeUnit unit) {
+    this(new AsyncDispatcher(pool), pool, timingWheel, maxBatchSize, maxLinger, unit);
+  }
+  
+  /**
+   * @param delegate the dispatcher of the subscribers which don't handle batches
+   * @param pool the pool which drains the batches
+   * @param timingWheel the timing wheel of linger times
+   * @param maxBatchSize the max number of events in a batch
+   * @param maxLinger the max time the first event of a batch waits
+   * @param unit the unit of max linger time
+   */
+  public BatchingDispatcher(Dispatcher delegate, ExecutorService pool, TimingWheel timingWheel,
+                            int maxBatchSize, long maxLinger, TimeUnit unit) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("Max batch size must be positive");
+    }
+    if (maxLinger < 0) {
+      throw new IllegalArgumentException("Max linger must not be negative");
+    }
+    this.delegate = Objects.requireNonNull(delegate, "Delegate dispatcher must not be null");
+    this.pool = Objects.requireNonNull(pool, "Pool must not be null");
+    this.timingWheel = Objects.requireNonNull(timingWheel, "Timing wheel must not be null");
+    this.maxBatchSize = maxBatchSize;
+    this.maxLingerNanos = unit.toNanos(maxLinger);
+  }
+  
+  /*
+   * The delegate dispatches first, so an event which it rejects was never
+   * accumulated.
+   */
+  @Override
+  public void dispatch(PendingEvent event, Subscriber[] subscribers) {
+    int batched = 0;
+    for (Subscriber subscriber : subscribers) {
+      if (isBatched(subscriber)) {
+        batched++;
+      }
+    }
+    if (batched < subscribers.length) {
+      delegate.dispatch(event, batched == 0 ? subscribers : unbatched(subscribers, batched));
+    }
+    if (batched == 0) {
+      return;
+    }
+    for (Subscriber subscriber : subscribers) {
+      if (isBatched(subscriber)) {
+        try {
+          post(subscriber, event);
+        } catch (RejectedExecutionException e) {
+          // the other subscribers are not affected by a rejected drain
+          LOGGER.debug("Reject {} for {}", event, subscriber.handler(), e);
+          event.discarded(subscriber.handler());
+        }
+      }
+    }
+  }
+  
+  /**
+   * Drain the accumulated events of all batch subscribers now, without
+   * waiting for their linger time. The events of a batch which is being
+   * drained are drained right after it.
+   */
+  public void flush() {
+    for (Batch batch : batches.values()) {
+      batch.flush();
+    }
+  }
+  
+  /**
+   * Returns the number of batches drained. A batch is counted before its
+   * events are reported, so it is seen by whoever awaits them.
+   *
+   * @return the number of batches
+   */
+  public long drained() {
+    return drained.sum();
+  }
+  
+  public long rejected() {
+    return rejected.sum();
+  }
+  
+  private static boolean isBatched(Subscriber subscriber) {
+    return subscriber.handler() instanceof BatchEventHandler;
+  }
+  
+  private static Subscriber[] unbatched(Subscriber[] subscribers, int batched) {
+    final Subscriber[] unbatched = new Subscriber[subscribers.length - batched];
+    int i = 0;
+    for (Subscriber subscriber : subscribers) {
+      if (!isBatched(subscriber)) {
+        unbatched[i++] = subscriber;
+      }
+    }
+    return unbatched;
+  }
+  
+  private void post(Subscriber subscriber, PendingEvent event) {
+    while (!batches.computeIfAbsent(subscriber, Batch::new).post(event)) {
+      // the batch was retired concurrently, post to a new one
+    }
+  }
+  
+  private final class Batch implements Runnable {
+    
+    private final Subscriber subscriber;
+    private final Queue<PendingEvent> events = new ArrayDeque<>();
+    private Timeout linger;
+    private int lingerRound;
+    private boolean draining;
+    private boolean flushing;
+    private boolean retired;
+    
+    Batch(Subscriber subscriber) {
+      this.subscriber = subscriber;
+    }
+    
+    /*
+     * Returns false if the batch had been retired. The accumulated event is
+     * retained until it was delivered.
+     */
+    boolean post(PendingEvent event) {
+      final boolean drain;
+      synchronized (this) {
+        if (retired) {
+          return false;
+        }
+        events.add(event.retain());
+        drain = !draining && (events.size() >= maxBatchSize || !linger());
+        if (drain) {
+          draining = true;
+          cancelLinger();
+        }
+      }
+      if (drain) {
+        execute(event);
+      }
+      return true;
+    }
+    
+    void flush() {
+      synchronized (this) {
+        if (events.isEmpty()) {
+          return;
+        }
+        if (draining) {
+          // drained by afterDrain
+          flushing = true;
+          return;
+        }
+        draining = true;
+        cancelLinger();
+      }
+      execute(null);
+    }
+    
+    private void lingerExpired(int round) {
+      synchronized (this) {
+        if (round != lingerRound || linger == null || draining) {
+          return;
+        }
+        linger = null;
+        draining = true;
+      }
+      execute(null);
+    }
+    
+    /*
+     * Returns true if the accumulated events linger, false if they should
+     * be drained at once, must hold the monitor.
+     */
+    private boolean linger() {
+      if (linger != null) {
+        return true;
+      }
+      if (maxLingerNanos == 0) {
+        return false;
+      }
+      final int round = ++lingerRound;
+      try {
+        linger = timingWheel.schedule(() -> lingerExpired(round), maxLingerNanos, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException e) {
+        LOGGER.debug("Timing wheel is closed, drain batch of {} at once", subscriber.handler());
+        return false;
+      }
+      return true;
+    }
+    
+    private void cancelLinger() {
+      if (linger != null) {
+        linger.cancel();
+        linger = null;
+      }
+    }
+    
+    /*
+     * Take the event back if the drain was rejected, so it is reported as
+     * discarded only once. The events accumulated before stay queued.
+     */
+    private void execute(PendingEvent event) {
+      try {
+        pool.execute(this);
+      } catch (RejectedExecutionException e) {
+        rejected.increment();
+        final boolean removed;
+        synchronized (this) {
+          draining = false;
+          removed = event != null && events.remove(event);
+        }
+        if (removed) {
+          event.release();
+          throw e;
+        }
+        LOGGER.warn("Couldn't drain batch of " + subscriber.handler(), e);
+      }
+    }
+    
+    @Override
+    public void run() {
+      final List<PendingEvent> batch;
+      synchronized (this) {
+        batch = new ArrayList<>(Math.min(events.size(), maxBatchSize));
+        while (batch.size() < maxBatchSize && !events.isEmpty()) {
+          batch.add(events.poll());
+        }
+        if (events.isEmpty()) {
+          flushing = false;
+        }
+      }
+      drained.increment();
+      try {
+        subscriber.onEvents(batch);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Batch dispatch failure", e);
+      } finally {
+        for (PendingEvent event : batch) {
+          event.release();
+        }
+        afterDrain();
+      }
+    }
+    
+    /*
+     * Retire the batch once it was drained empty, otherwise drain or linger
+     * the events accumulated meanwhile.
+     */
+    private void afterDrain() {
+      final boolean drain;
+      synchronized (this) {
+        if (events.isEmpty()) {
+          draining = false;
+          retired = true;
+          batches.remove(subscriber, this);
+          return;
+        }
+        drain = flushing || events.size() >= maxBatchSize || !linger();
+        draining = drain;
+      }
+      if (drain) {
+        execute(null);
+      }
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dispatch events through a bounded queue, drained by at most
+ * {@code parallelism} tasks of the pool.
+ * <p>
+ * So the pool queues at most {@code parallelism} tasks for this dispatcher,
+ * and when the queue of events is full, the {@link OverflowPolicy} decides
+ * how the dispatching thread is slowed down or which event is discarded.
+ * Each outcome is counted.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class BoundedAsyncDispatcher extends Dispatcher {
+  
+  private static final Logger LOGGER = LoggerFactory.getLogger(BoundedAsyncDispatcher.class);
+  
+  private final ExecutorService pool;
+  private final BlockingQueue<Delivery> queue;
+  private final int parallelism;
+  private final OverflowPolicy policy;
+  private final long timeoutNanos;
+  private final AtomicInteger drainers = new AtomicInteger();
+  private final Runnable drainer = this::drain;
+  
+  private final LongAdder accepted = new LongAdder();
+  private final LongAdder blocked = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder callerRuns = new LongAdder();
+  private final LongAdder droppedNewest = new LongAdder();
+  private final LongAdder droppedOldest = new LongAdder();
+  
+  public BoundedAsyncDispatcher(ExecutorService pool, int capacity, int parallelism,
+                                OverflowPolicy policy) {
+    this(pool, capacity, parallelism, policy, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+  
+  public BoundedAsyncDispatcher(ExecutorService pool, int capacity, int parallelism,
+                                OverflowPolicy policy, long timeout, TimeUnit unit) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Timeout must not be negative");
+    }
+    this.pool = Objects.requireNonNull(pool, "Pool must not be null");
+    this.policy = Objects.requireNonNull(policy, "Overflow policy must not be null");
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.parallelism = parallelism;
+    this.timeoutNanos = unit.toNanos(timeout);
+  }
+  
+  @Override
+  public void dispatch(PendingEvent event, Subscriber[] subscribers) {
+    final Delivery delivery = new Delivery(event, subscribers);
+    if (queue.offer(delivery) || overflow(delivery)) {
+      startDrainer(delivery);
+      accepted.increment();
+    }
+  }
+  
+  /*
+   * Take the delivery back if the drainer was rejected, so the caller which
+   * sees the rejection knows it is never delivered. If a running drainer
+   * took it already, it will be delivered and the rejection is ignored.
+   */
+  private void startDrainer(Delivery delivery) {
+    try {
+      startDrainer();
+    } catch (RejectedExecutionException e) {
+      if (queue.remove(delivery)) {
+        rejected.increment();
+        delivery.release();
+        throw e;
+      }
+    }
+  }
+  
+  /*
+   * Returns true if the delivery was queued after applying the overflow
+   * policy.
+   */
+  private boolean overflow(Delivery delivery) {
+    switch (policy) {
+      case BLOCK:
+        blocked.increment();
+        try {
+          if (queue.offer(delivery, timeoutNanos, TimeUnit.NANOSECONDS)) {
+            return true;
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        rejected.increment();
+        delivery.release();
+        throw new RejectedExecutionException("Dispatch queue is full, reject " + delivery.event());
+      case CALLER_RUNS:
+        callerRuns.increment();
+        delivery.run();
+        return false;
+      case DROP_NEWEST:
+        droppedNewest.increment();
+        LOGGER.debug("Dispatch queue is full, drop {}", delivery.event());
+        delivery.discard();
+        return false;
+      case DROP_OLDEST:
+        do {
+          final Delivery oldest = queue.poll();
+          if (oldest != null) {
+            droppedOldest.increment();
+            LOGGER.debug("Dispatch queue is full, drop {}", oldest.event());
+            oldest.discard();
+          }
+        } while (!queue.offer(delivery));
+        return true;
+      default:
+        throw new IllegalStateException("Unsupported overflow policy " + policy);
+    }
+  }
+  
+  private void startDrainer() {
+    int current;
+    while ((current = drainers.get()) < parallelism) {
+      if (drainers.compareAndSet(current, current + 1)) {
+        try {
+          pool.execute(drainer);
+        } catch (RejectedExecutionException e) {
+          drainers.decrementAndGet();
+          throw e;
+        }
+        return;
+      }
+    }
+  }
+  
+  private void drain() {
+    while (true) {
+      final Delivery delivery = queue.poll();
+      if (delivery != null) {
+        delivery.run();
+        continue;
+      }
+      drainers.decrementAndGet();
+      // an event may be queued after the poll while all drainers were busy
+      if (queue.isEmpty() || !restartDrainer()) {
+        return;
+      }
+    }
+  }
+  
+  private boolean restartDrainer() {
+    int current;
+    while ((current = drainers.get()) < parallelism) {
+      if (drainers.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  public int depth() {
+    return queue.size();
+  }
+  
+  public long accepted() {
+    return accepted.sum();
+  }
+  
+  public long blocked() {
+    return blocked.sum();
+  }
+  
+  public long rejected() {
+    return rejected.sum();
+  }
+  
+  public long callerRuns() {
+    return callerRuns.sum();
+  }
+  
+  public long droppedNewest() {
+    return droppedNewest.sum();
+  }
+  
+  public long droppedOldest() {
+    return droppedOldest.sum();
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.event.Event;
+import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Dispatch only the newest pending event of each key.
+ * <p>
+ * An event which is waiting to be dispatched is replaced by the next event
+ * with the same key, and reported as discarded. So the backlog is bounded by
+ * the number of distinct keys, which fits the events of "latest value wins",
+ * like price ticks or progress updates. The keys are dispatched in the order
+ * they became pending, by at most {@code parallelism} tasks of the pool.
+ * With a parallelism greater than 1, the events of same key may be handled
+ * concurrently.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class ConflatingDispatcher extends Dispatcher {
+  
+  private static final Object NULL_KEY = new Object();
+  
+  private final ExecutorService pool;
+  private final Function<? super Event, ?> keyExtractor;
+  private final int parallelism;
+  private final ConcurrentMap<Object, Delivery> pending = new ConcurrentHashMap<>();
+  private final Queue<Object> keys = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger drainers = new AtomicInteger();
+  private final Runnable drainer = this::drain;
+  private final LongAdder conflated = new LongAdder();
+  
+  public ConflatingDispatcher(ExecutorService pool, Function<? super Event, ?> keyExtractor) {
+    this(pool, 1, keyExtractor);
+  }
+  
+  public ConflatingDispatcher(ExecutorService pool, int parallelism,
+                              Function<? super Event, ?> keyExtractor) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
+    this.pool = Objects.requireNonNull(pool, "Pool must not be null");
+    this.keyExtractor = Objects.requireNonNull(keyExtractor, "Key extractor must not be null");
+    this.parallelism = parallelism;
+  }
+  
+  @Override
+  public void dispatch(PendingEvent event, Subscriber[] subscribers) {
+    final Object key = keyExtractor.apply(event.toEvent());
+    final Object pendingKey = key == null ? NULL_KEY : key;
+    final Delivery delivery = new Delivery(event, subscribers);
+    final Delivery replaced = pending.put(pendingKey, delivery);
+    if (replaced != null) {
+      conflated.increment();
+      replaced.discard();
+      return;
+    }
+    keys.offer(pendingKey);
+    try {
+      startDrainer();
+    } catch (RejectedExecutionException e) {
+      // take the delivery back, unless a drainer took or a newer event replaced it
+      if (pending.remove(pendingKey, delivery)) {
+        keys.remove(pendingKey);
+        delivery.release();
+        throw e;
+      }
+    }
+  }
+  
+  private void startDrainer() {
+    int current;
+    while ((current = drainers.get()) < parallelism) {
+      if (drainers.compareAndSet(current, current + 1)) {
+        try {
+          pool.execute(drainer);
+        } catch (RejectedExecutionException e) {
+          drainers.decrementAndGet();
+          throw e;
+        }
+        return;
+      }
+    }
+  }
+  
+  /*
+   * A key is polled before its delivery is removed, so an event which is
+   * dispatched in between replaces the delivery, and an event which is
+   * dispatched after the removal offers the key again.
+   */
+  private void drain() {
+    while (true) {
+      final Object key = keys.poll();
+      if (key != null) {
+        final Delivery delivery = pending.remove(key);
+        if (delivery != null) {
+          delivery.run();
+        }
+        continue;
+      }
+      drainers.decrementAndGet();
+      if (keys.isEmpty() || !restartDrainer()) {
+        return;
+      }
+    }
+  }
+  
+  private boolean restartDrainer() {
+    int current;
+    while ((current = drainers.get()) < parallelism) {
+      if (drainers.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Returns the number of keys with a pending event.
+   *
+   * @return the number of pending keys
+   */
+  public int depth() {
+    return pending.size();
+  }
+  
+  /**
+   * Returns the number of pending events which were replaced by a newer
+   * event with the same key.
+   *
+   * @return the number of conflated events
+   */
+  public long conflated() {
+    return conflated.sum();
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An event waiting to be delivered to its subscribers.
+ * <p>
+ * The event is retained on construction, and released after it was
+ * delivered or discarded, so a delivery must be run or discarded once, or
+ * released if it couldn't be queued.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class Delivery implements Runnable {
+  
+  private static final Logger LOGGER = LoggerFactory.getLogger(Delivery.class);
+  
+  private final PendingEvent event;
+  private final Subscriber[] subscribers;
+  
+  Delivery(PendingEvent event, Subscriber[] subscribers) {
+    assert event != null;
+    assert subscribers != null;
+    this.event = event.retain();
+    this.subscribers = subscribers;
+  }
+  
+  PendingEvent event() {
+    return event;
+  }
+  
+  /**
+   * Report the event as discarded to all subscribers.
+   */
+  void discard() {
+    try {
+      for (Subscriber subscriber : subscribers) {
+        event.discarded(subscriber.handler());
+      }
+    } finally {
+      event.release();
+    }
+  }
+  
+  /**
+   * Release the event without delivering it.
+   */
+  void release() {
+    event.release();
+  }
+  
+  @Override
+  public void run() {
+    try {
+      deliver(event, subscribers);
+    } finally {
+      event.release();
+    }
+  }
+  
+  static void deliver(PendingEvent event, Subscriber[] subscribers) {
+    for (Subscriber subscriber : subscribers) {
+      try {
+        subscriber.onEvent(event);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Async dispatch failure", e);
+      }
+    }
+  }
+}
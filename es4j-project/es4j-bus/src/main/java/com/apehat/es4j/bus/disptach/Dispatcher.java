@@ -19,15 +19,26 @@ package com.apehat.es4j.bus.disptach;
 import com.apehat.es4j.bus.event.PendingEvent;
 import com.apehat.es4j.bus.subscriber.Subscriber;
 
-import java.util.Set;
-
 /**
+ * Delivers events to their subscribers on the calling thread. Subclasses
+ * override {@link #dispatch(PendingEvent, Subscriber[])} to deliver them
+ * asynchronously.
+ *
  * @author hanpengfei
  * @since 1.0
  */
 public class Dispatcher {
   
-  public void dispatch(PendingEvent event, Set<Subscriber> subscribers) {
+  /**
+   * Dispatch the event to the specified subscribers. A dispatcher which
+   * delivers the event after this method returned must
+   * {@link PendingEvent#retain() retain} it, and release it after the event
+   * was delivered or discarded.
+   *
+   * @param event the event to dispatch
+   * @param subscribers the subscribers of event, must not be modified
+   */
+  public void dispatch(PendingEvent event, Subscriber[] subscribers) {
     for (Subscriber subscriber : subscribers) {
       subscriber.onEvent(event);
     }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single consumer lane, which runs the queued tasks on the executor one by
+ * one in the order they were enqueued.
+ * <p>
+ * At most one drain of a lane is running at any time. A drain runs a limited
+ * number of tasks and then reschedules itself, so that a busy lane can not
+ * monopolize a thread of the executor.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+class Lane implements Runnable {
+  
+  private static final int DRAIN_LIMIT = 64;
+  
+  private final Executor executor;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger depth = new AtomicInteger();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  
+  Lane(Executor executor) {
+    this.executor = executor;
+  }
+  
+  /**
+   * Enqueue the task, and schedule the drain of this lane if it isn't
+   * scheduled yet. If the drain is rejected, the task is taken back before
+   * the rejection is thrown, unless a running drain took it already.
+   *
+   * @param task the task to run
+   * @throws RejectedExecutionException if the drain was rejected, and the
+   * task will never run
+   */
+  void enqueue(Runnable task) {
+    depth.incrementAndGet();
+    tasks.offer(task);
+    try {
+      schedule();
+    } catch (RejectedExecutionException e) {
+      if (tasks.remove(task)) {
+        depth.decrementAndGet();
+        throw e;
+      }
+    }
+  }
+  
+  int depth() {
+    return depth.get();
+  }
+  
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        scheduled.set(false);
+        throw e;
+      }
+    }
+  }
+  
+  @Override
+  public void run() {
+    try {
+      Runnable task;
+      for (int i = 0; i < DRAIN_LIMIT && (task = tasks.poll()) != null; i++) {
+        depth.decrementAndGet();
+        task.run();
+      }
+    } finally {
+      scheduled.set(false);
+      if (!tasks.isEmpty()) {
+        schedule();
+      }
+    }
+  }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.EventHandler;
+import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dispatch events through a bounded mailbox of each subscriber.
+ * <p>
+ * Each mailbox is drained by at most one task of the pool at any time, so a
+ * slow or stuck subscriber holds at most one thread, and builds backlog only
+ * in its own mailbox, while the other subscribers of the same events go on.
+ * Each subscriber receives its events in the order they were dispatched,
+ * except the events run by the caller on overflow, and the events of a
+ * thread which waits for room in a full mailbox, which may be overtaken by
+ * the events of other threads.
+ * <p>
+ * When a mailbox is full, the {@link OverflowPolicy} is applied to that
+ * subscriber only. Blocking and caller-runs overflow happen outside of the
+ * monitor of mailbox, so they never hold up the other posters of it.
+ * <p>
+ * A mailbox is kept while its subscriber receives events, and is retired
+ * once it was empty and unused for the idle timeout, so a subscriber which
+ * was unsubscribed does not keep its mailbox. Idle mailboxes are swept by
+ * the dispatching threads, at most once per idle timeout.
+ * <p>
+ * An event which a mailbox rejects, because it stayed full or the pool
+ * rejected its drain, is reported as discarded for that subscriber only,
+ * the dispatch itself never fails for it. Events which other threads posted
+ * to the same mailbox meanwhile stay queued until its next drain.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class MailboxDispatcher extends Dispatcher {
+  
+  private static final Logger LOGGER = LoggerFactory.getLogger(MailboxDispatcher.class);
+  private static final int DRAIN_LIMIT = 64;
+  private static final long DEFAULT_IDLE_SECONDS = 60;
+  
+  private final ExecutorService pool;
+  private final int capacity;
+  private final OverflowPolicy policy;
+  private final long timeoutNanos;
+  private final long idleNanos;
+  private final AtomicLong nextSweep;
+  private final ConcurrentMap<Subscriber, Mailbox> mailboxes = new ConcurrentHashMap<>();
+  
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder callerRuns = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  
+  public MailboxDispatcher(ExecutorService pool, int capacity, OverflowPolicy policy) {
+    this(pool, capacity, policy, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+  
+  public MailboxDispatcher(ExecutorService pool, int capacity, OverflowPolicy policy,
+                           long timeout, TimeUnit unit) {
+    this(pool, capacity, policy, timeout, unit.convert(DEFAULT_IDLE_SECONDS, TimeUnit.SECONDS), unit);
+  }
+  
+  /**
+   * @param pool the pool which drains the mailboxes
+   * @param capacity the capacity of each mailbox
+   * @param policy the policy applied when a mailbox is full
+   * @param timeout the max time to wait for a full mailbox, with {@link OverflowPolicy#BLOCK}
+   * @param idleTimeout the time a mailbox is kept after it was last used
+   * @param unit the unit of timeout and idle timeout
+   */
+  public MailboxDispatcher(ExecutorService pool, int capacity, OverflowPolicy policy,
+                           long timeout, long idleTimeout, TimeUnit unit) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Timeout must not be negative");
+    }
+    if (idleTimeout < 0) {
+      throw new IllegalArgumentException("Idle timeout must not be negative");
+    }
+    this.pool = Objects.requireNonNull(pool, "Pool must not be null");
+    this.policy = Objects.requireNonNull(policy, "Overflow policy must not be null");
+    this.capacity = capacity;
+    this.timeoutNanos = unit.toNanos(timeout);
+    this.idleNanos = unit.toNanos(idleTimeout);
+    this.nextSweep = new AtomicLong(System.nanoTime() + idleNanos);
+  }
+  
+  @Override
+  public void dispatch(PendingEvent event, Subscriber[] subscribers) {
+    final long now = System.nanoTime();
+    sweep(now);
+    for (Subscriber subscriber : subscribers) {
+      try {
+        post(subscriber, event, now);
+      } catch (RejectedExecutionException e) {
+        // the other subscribers are not affected by a full mailbox
+        LOGGER.debug("Reject {} for {}", event, subscriber.handler(), e);
+        event.discarded(subscriber.handler());
+      }
+    }
+  }
+  
+  private void post(Subscriber subscriber, PendingEvent event, long now) {
+    while (!mailboxes.computeIfAbsent(subscriber, Mailbox::new).post(event, now)) {
+      // the mailbox was retired concurrently, post to a new one
+    }
+  }
+  
+  private void sweep(long now) {
+    final long next = nextSweep.get();
+    if (now - next < 0 || !nextSweep.compareAndSet(next, now + idleNanos)) {
+      return;
+    }
+    for (Mailbox mailbox : mailboxes.values()) {
+      mailbox.retireIfIdle(now);
+    }
+  }
+  
+  /**
+   * Returns the number of events waiting in the mailbox of the specified
+   * handler.
+   *
+   * @param handler the handler of subscriber
+   * @return the depth of mailbox, or 0 if there is no mailbox
+   */
+  public int depthOf(EventHandler handler) {
+    for (Mailbox mailbox : mailboxes.values()) {
+      if (mailbox.subscriber.handler() == handler) {
+        return mailbox.queue.size();
+      }
+    }
+    return 0;
+  }
+  
+  /**
+   * Returns the depth of each mailbox, keyed by the handler of subscriber.
+   *
+   * @return the depths of mailboxes
+   */
+  public Map<EventHandler, Integer> depths() {
+    final Map<EventHandler, Integer> depths = new HashMap<>();
+    for (Mailbox mailbox : mailboxes.values()) {
+      depths.put(mailbox.subscriber.handler(), mailbox.queue.size());
+    }
+    return depths;
+  }
+  
+  public int mailboxes() {
+    return mailboxes.size();
+  }
+  
+  public long rejected() {
+    return rejected.sum();
+  }
+  
+  public long callerRuns() {
+    return callerRuns.sum();
+  }
+  
+  public long dropped() {
+    return dropped.sum();
+  }
+  
+  private final class Mailbox implements Runnable {
+    
+    private final Subscriber subscriber;
+    private final BlockingQueue<PendingEvent> queue;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile long lastUsed;
+    private int posters;
+    private boolean retired;
+    
+    Mailbox(Subscriber subscriber) {
+      this.subscriber = subscriber;
+      this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+    
+    /*
+     * Returns false if the mailbox had been retired. A mailbox is only
+     * retired while no thread is posting to it, so an event is never posted
+     * to a retired mailbox. The monitor only guards that count, the event
+     * is offered and the overflow applied without holding it.
+     */
+    boolean post(PendingEvent event, long now) {
+      synchronized (this) {
+        if (retired) {
+          return false;
+        }
+        posters++;
+      }
+      try {
+        lastUsed = now;
+        enqueue(event);
+      } finally {
+        synchronized (this) {
+          posters--;
+        }
+      }
+      return true;
+    }
+    
+    void retireIfIdle(long now) {
+      synchronized (this) {
+        if (posters == 0 && !scheduled.get() && queue.isEmpty() && now - lastUsed >= idleNanos) {
+          retired = true;
+          mailboxes.remove(subscriber, this);
+        }
+      }
+    }
+    
+    /*
+     * The queued event is retained until it was delivered or discarded.
+     */
+    private void enqueue(PendingEvent event) {
+      event.retain();
+      boolean queued = false;
+      try {
+        queued = queue.offer(event) || overflow(event);
+      } finally {
+        if (!queued) {
+          event.release();
+        }
+      }
+      if (queued) {
+        schedule(event);
+      }
+    }
+    
+    /*
+     * Returns true if the event was queued.
+     */
+    private boolean overflow(PendingEvent event) {
+      switch (policy) {
+        case BLOCK:
+          try {
+            if (queue.offer(event, timeoutNanos, TimeUnit.NANOSECONDS)) {
+              return true;
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          rejected.increment();
+          throw new RejectedExecutionException("Mailbox of " + subscriber.handler() + " is full");
+        case CALLER_RUNS:
+          callerRuns.increment();
+          deliver(event);
+          return false;
+        case DROP_NEWEST:
+          discard(event);
+          return false;
+        case DROP_OLDEST:
+          do {
+            final PendingEvent oldest = queue.poll();
+            if (oldest != null) {
+              discard(oldest);
+              oldest.release();
+            }
+          } while (!queue.offer(event));
+          return true;
+        default:
+          throw new IllegalStateException("Unsupported overflow policy " + policy);
+      }
+    }
+    
+    private void discard(PendingEvent event) {
+      dropped.increment();
+      LOGGER.debug("Mailbox of {} is full, drop {}", subscriber.handler(), event);
+      event.discarded(subscriber.handler());
+    }
+    
+    /*
+     * Take the event back if the drain was rejected, so it is reported as
+     * discarded only once. If another drain took it already, it will be
+     * delivered and the rejection is ignored.
+     */
+    private void schedule(PendingEvent event) {
+      try {
+        schedule();
+      } catch (RejectedExecutionException e) {
+        if (queue.remove(event)) {
+          rejected.increment();
+          event.release();
+          throw e;
+        }
+      }
+    }
+    
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        try {
+          pool.execute(this);
+        } catch (RejectedExecutionException e) {
+          scheduled.set(false);
+          throw e;
+        }
+      }
+    }
+    
+    @Override
+    public void run() {
+      try {
+        PendingEvent event;
+        for (int i = 0; i < DRAIN_LIMIT && (event = queue.poll()) != null; i++) {
+          try {
+            deliver(event);
+          } finally {
+            event.release();
+          }
+        }
+      } finally {
+        scheduled.set(false);
+        if (!queue.isEmpty()) {
+          schedule();
+        }
+      }
+    }
+    
+    private void deliver(PendingEvent event) {
+      try {
+        subscriber.onEvent(event);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Mailbox dispatch failure", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+/**
+ * The policy applied when an event is dispatched to a full queue.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public enum OverflowPolicy {
+  
+  /**
+   * Block the dispatching thread until there is space or the timeout elapsed,
+   * and reject the event if timed out.
+   */
+  BLOCK,
+  
+  /**
+   * Deliver the event by the dispatching thread.
+   */
+  CALLER_RUNS,
+  
+  /**
+   * Discard the event being dispatched.
+   */
+  DROP_NEWEST,
+  
+  /**
+   * Discard the oldest queued event, and queue the event being dispatched.
+   */
+  DROP_OLDEST
+}
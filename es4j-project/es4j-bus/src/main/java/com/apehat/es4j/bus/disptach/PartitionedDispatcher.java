@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.event.Event;
+import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Dispatch events on a fixed number of ordered lanes.
+ * <p>
+ * The key of each event is hashed onto one of the lanes, and each lane
+ * delivers its events one by one in the order they were dispatched. So the
+ * events with the same key are handled in order, while the events with
+ * different keys are handled in parallel on the pool. By default, the source
+ * of event is used as its key.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class PartitionedDispatcher extends Dispatcher {
+  
+  private final Lane[] lanes;
+  private final Function<? super Event, ?> keyExtractor;
+  
+  public PartitionedDispatcher(ExecutorService pool, int partitions) {
+    this(pool, partitions, Event::source);
+  }
+  
+  public PartitionedDispatcher(ExecutorService pool, int partitions,
+                               Function<? super Event, ?> keyExtractor) {
+    Objects.requireNonNull(pool, "Pool must not be null");
+    if (partitions < 1) {
+      throw new IllegalArgumentException("Partitions must be positive");
+    }
+    this.keyExtractor = Objects.requireNonNull(keyExtractor, "Key extractor must not be null");
+    this.lanes = new Lane[partitions];
+    for (int i = 0; i < partitions; i++) {
+      lanes[i] = new Lane(pool);
+    }
+  }
+  
+  @Override
+  public void dispatch(PendingEvent event, Subscriber[] subscribers) {
+    final Object key = keyExtractor.apply(event.toEvent());
+    final Delivery delivery = new Delivery(event, subscribers);
+    try {
+      laneOf(key).enqueue(delivery);
+    } catch (RejectedExecutionException e) {
+      delivery.release();
+      throw e;
+    }
+  }
+  
+  public int partitions() {
+    return lanes.length;
+  }
+  
+  /**
+   * Returns the number of events waiting in the lane of the specified key.
+   *
+   * @param key the key of events
+   * @return the depth of the lane
+   */
+  public int depthOf(Object key) {
+    return laneOf(key).depth();
+  }
+  
+  private Lane laneOf(Object key) {
+    if (key == null) {
+      return lanes[0];
+    }
+    final int hash = key.hashCode();
+    return lanes[Math.floorMod(hash ^ (hash >>> 16), lanes.length)];
+  }
+}
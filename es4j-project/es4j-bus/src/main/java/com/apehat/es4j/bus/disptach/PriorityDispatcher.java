@@ -0,0 +1,259 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatch events through weighted priority lanes, lane 0 has the highest
+ * priority.
+ * <p>
+ * The lane of an event is the priority specified on submit, or the lane
+ * assigned to its type, or the last lane by default. The lanes are drained
+ * by at most {@code parallelism} tasks of the pool, and each drainer picks
+ * the lanes by smooth weighted round robin: a non empty lane with weight
+ * {@code w} is picked {@code w} times in every {@code sum(w)} picks, spread
+ * evenly. So the events of a high priority lane wait for at most a few
+ * deliveries, even if millions of events wait in the other lanes, while the
+ * low priority lanes are never starved.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class PriorityDispatcher extends Dispatcher {
+  
+  private final ExecutorService pool;
+  private final int parallelism;
+  private final int[] weights;
+  private final PriorityLane[] lanes;
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicInteger drainers = new AtomicInteger();
+  private final Runnable drainer = this::drain;
+  private final Map<Class<?>, Integer> assignments = new LinkedHashMap<>();
+  private volatile ClassValue<Integer> typeLanes = newTypeLanes(Collections.emptyMap());
+  
+  /**
+   * @param pool the pool to drain lanes
+   * @param parallelism the maximum number of drainers
+   * @param weights the weight of each lane, from the highest priority
+   */
+  public PriorityDispatcher(ExecutorService pool, int parallelism, int... weights) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
+    if (weights.length == 0) {
+      throw new IllegalArgumentException("Must specified weights");
+    }
+    for (int weight : weights) {
+      if (weight < 1) {
+        throw new IllegalArgumentException("Weight must be positive");
+      }
+    }
+    this.pool = Objects.requireNonNull(pool, "Pool must not be null");
+    this.parallelism = parallelism;
+    this.weights = weights.clone();
+    this.lanes = new PriorityLane[weights.length];
+    for (int i = 0; i < weights.length; i++) {
+      lanes[i] = new PriorityLane();
+    }
+  }
+  
+  /**
+   * Assign the events of specified type, and its subtypes, to the lane. The
+   * earliest assigned supertype wins, if the type wasn't assigned.
+   *
+   * @param type the type of events
+   * @param lane the lane of events
+   */
+  public void assign(Class<?> type, int lane) {
+    Objects.requireNonNull(type, "Type must not be null");
+    checkLane(lane);
+    synchronized (assignments) {
+      assignments.put(type, lane);
+      typeLanes = newTypeLanes(new LinkedHashMap<>(assignments));
+    }
+  }
+  
+  private static ClassValue<Integer> newTypeLanes(Map<Class<?>, Integer> assignments) {
+    return new ClassValue<Integer>() {
+      @Override
+      protected Integer computeValue(Class<?> type) {
+        final Integer lane = assignments.get(type);
+        if (lane != null) {
+          return lane;
+        }
+        for (Map.Entry<Class<?>, Integer> assignment : assignments.entrySet()) {
+          if (assignment.getKey().isAssignableFrom(type)) {
+            return assignment.getValue();
+          }
+        }
+        return -1;
+      }
+    };
+  }
+  
+  @Override
+  public void dispatch(PendingEvent event, Subscriber[] subscribers) {
+    final int lane = laneOf(event);
+    final Delivery delivery = new Delivery(event, subscribers);
+    lanes[lane].depth.incrementAndGet();
+    lanes[lane].deliveries.offer(delivery);
+    pending.incrementAndGet();
+    try {
+      startDrainer();
+    } catch (RejectedExecutionException e) {
+      // take the delivery back, unless a running drainer took it already
+      if (lanes[lane].deliveries.remove(delivery)) {
+        taken(lane);
+        delivery.release();
+        throw e;
+      }
+    }
+  }
+  
+  private int laneOf(PendingEvent event) {
+    if (event.priority() != PendingEvent.UNSPECIFIED_PRIORITY) {
+      return Math.min(event.priority(), lanes.length - 1);
+    }
+    final int lane = typeLanes.get(event.type());
+    return lane < 0 ? lanes.length - 1 : lane;
+  }
+  
+  private void startDrainer() {
+    int current;
+    while ((current = drainers.get()) < parallelism) {
+      if (drainers.compareAndSet(current, current + 1)) {
+        try {
+          pool.execute(drainer);
+        } catch (RejectedExecutionException e) {
+          drainers.decrementAndGet();
+          throw e;
+        }
+        return;
+      }
+    }
+  }
+  
+  private void drain() {
+    final int[] credits = new int[lanes.length];
+    while (true) {
+      final Delivery delivery = pending.get() > 0 ? next(credits) : null;
+      if (delivery != null) {
+        delivery.run();
+        continue;
+      }
+      drainers.decrementAndGet();
+      // an event may be dispatched after the check while all drainers were busy
+      if (pending.get() == 0 || !restartDrainer()) {
+        return;
+      }
+    }
+  }
+  
+  /*
+   * Smooth weighted round robin over the non empty lanes, the credits are
+   * local to drainer.
+   */
+  private Delivery next(int[] credits) {
+    int picked = -1;
+    int total = 0;
+    for (int i = 0; i < lanes.length; i++) {
+      if (lanes[i].depth.get() > 0) {
+        credits[i] += weights[i];
+        total += weights[i];
+        if (picked < 0 || credits[i] > credits[picked]) {
+          picked = i;
+        }
+      }
+    }
+    if (picked < 0) {
+      return null;
+    }
+    credits[picked] -= total;
+    final Delivery delivery = lanes[picked].deliveries.poll();
+    if (delivery == null) {
+      // the event was taken by another drainer, or is being offered
+      return pollAny();
+    }
+    taken(picked);
+    return delivery;
+  }
+  
+  private Delivery pollAny() {
+    for (int i = 0; i < lanes.length; i++) {
+      final Delivery delivery = lanes[i].deliveries.poll();
+      if (delivery != null) {
+        taken(i);
+        return delivery;
+      }
+    }
+    return null;
+  }
+  
+  private void taken(int lane) {
+    lanes[lane].depth.decrementAndGet();
+    pending.decrementAndGet();
+  }
+  
+  private boolean restartDrainer() {
+    int current;
+    while ((current = drainers.get()) < parallelism) {
+      if (drainers.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  private void checkLane(int lane) {
+    if (lane < 0 || lane >= lanes.length) {
+      throw new IllegalArgumentException("Lane must be in [0, " + lanes.length + ")");
+    }
+  }
+  
+  public int lanes() {
+    return lanes.length;
+  }
+  
+  /**
+   * Returns the number of events waiting in the specified lane.
+   *
+   * @param lane the lane
+   * @return the depth of lane
+   */
+  public int depthOf(int lane) {
+    checkLane(lane);
+    return lanes[lane].depth.get();
+  }
+  
+  private static final class PriorityLane {
+    
+    private final Queue<Delivery> deliveries = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dispatch events through a preallocated ring buffer.
+ * <p>
+ * Each slot of the ring has a sequence, producers claim a position by
+ * incrementing the tail, wait until the slot of the position was released,
+ * and then publish the slot by advancing its sequence. The consumer threads
+ * claim published slots from the head, deliver the events and release the
+ * slots for the next round. No task or node is allocated per event, and a
+ * full ring makes producers wait, so the memory used by pending events is
+ * bounded by the capacity.
+ * <p>
+ * The consumers are started on construction and stopped by {@link #close()},
+ * after all published events were delivered. A producer which published an
+ * event while the ring was closing delivers the remaining events itself.
+ * By default the consumers are daemon threads, so an unclosed dispatcher
+ * does not keep the JVM alive.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class RingBufferDispatcher extends Dispatcher implements AutoCloseable {
+  
+  private static final Logger LOGGER = LoggerFactory.getLogger(RingBufferDispatcher.class);
+  
+  private static final int SPIN_TRIES = 100;
+  private static final int YIELD_TRIES = 100;
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  
+  private static final int POLLED = 0;
+  private static final int EMPTY = 1;
+  private static final int CONTENDED = 2;
+  
+  private final int mask;
+  private final PendingEvent[] events;
+  private final Subscriber[][] subscribers;
+  private final AtomicLongArray sequences;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+  private final Thread[] consumers;
+  private volatile boolean running = true;
+  
+  public RingBufferDispatcher(int capacity, int consumers) {
+    this(capacity, consumers, daemonThreads());
+  }
+  
+  public RingBufferDispatcher(int capacity, int consumers, ThreadFactory threadFactory) {
+    if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of 2");
+    }
+    if (consumers < 1) {
+      throw new IllegalArgumentException("Consumers must be positive");
+    }
+    this.mask = capacity - 1;
+    this.events = new PendingEvent[capacity];
+    this.subscribers = new Subscriber[capacity][];
+    this.sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+    this.consumers = new Thread[consumers];
+    for (int i = 0; i < consumers; i++) {
+      this.consumers[i] = threadFactory.newThread(this::consume);
+      this.consumers[i].start();
+    }
+  }
+  
+  @Override
+  public void dispatch(PendingEvent event, Subscriber[] subscribers) {
+    if (!running) {
+      throw new RejectedExecutionException("Dispatcher already closed");
+    }
+    final long position = tail.getAndIncrement();
+    final int index = (int) position & mask;
+    int tries = 0;
+    while (sequences.get(index) != position) {
+      tries = idle(tries);
+    }
+    this.events[index] = event.retain();
+    this.subscribers[index] = subscribers;
+    sequences.set(index, position + 1);
+    if (!running) {
+      while (poll() != EMPTY) {
+        // deliver the events published after the consumers exited
+      }
+    }
+  }
+  
+  public int capacity() {
+    return mask + 1;
+  }
+  
+  /**
+   * Returns the number of events which were claimed but not yet delivered.
+   *
+   * @return the number of pending events
+   */
+  public long pending() {
+    return Math.max(0, tail.get() - head.get());
+  }
+  
+  /**
+   * Stop accepting events, and wait until all consumers delivered the
+   * published events and exited.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    running = false;
+    for (Thread consumer : consumers) {
+      LockSupport.unpark(consumer);
+      consumer.join();
+    }
+  }
+  
+  private void consume() {
+    int tries = 0;
+    while (true) {
+      final int polled;
+      try {
+        polled = poll();
+      } catch (Throwable e) {
+        // the slot was already released, so the consumer keeps going
+        LOGGER.error("Ring buffer delivery failure", e);
+        tries = 0;
+        continue;
+      }
+      if (polled == POLLED) {
+        tries = 0;
+      } else if (polled == EMPTY) {
+        if (!running && head.get() == tail.get()) {
+          return;
+        }
+        tries = idle(tries);
+      }
+    }
+  }
+  
+  /*
+   * Claim the slot at head and deliver its event, returns EMPTY if the slot
+   * at head was not yet published, or CONTENDED if another consumer claimed
+   * it first.
+   */
+  private int poll() {
+    final long position = head.get();
+    final int index = (int) position & mask;
+    final long sequence = sequences.get(index);
+    if (sequence != position + 1) {
+      return sequence <= position ? EMPTY : CONTENDED;
+    }
+    if (!head.compareAndSet(position, position + 1)) {
+      return CONTENDED;
+    }
+    final PendingEvent event = this.events[index];
+    final Subscriber[] subscribers = this.subscribers[index];
+    this.events[index] = null;
+    this.subscribers[index] = null;
+    sequences.set(index, position + mask + 1);
+    try {
+      Delivery.deliver(event, subscribers);
+    } finally {
+      event.release();
+    }
+    return POLLED;
+  }
+  
+  private static ThreadFactory daemonThreads() {
+    final AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      final Thread thread = new Thread(runnable, "es4j-ring-buffer-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+  
+  /*
+   * Back off gradually: busy spin first, then yield, and at last park with an
+   * increasing timeout, so an idle ring costs little CPU while a busy ring
+   * keeps the wake up latency low.
+   */
+  private static int idle(int tries) {
+    if (tries < SPIN_TRIES) {
+      return tries + 1;
+    }
+    if (tries < SPIN_TRIES + YIELD_TRIES) {
+      Thread.yield();
+      return tries + 1;
+    }
+    final int parks = tries - SPIN_TRIES - YIELD_TRIES;
+    LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << Math.min(parks, 20)));
+    return tries + 1;
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Dispatch each subscriber invocation on its own virtual thread.
+ * <p>
+ * Virtual threads are available since Java 21, so that blocking subscribers
+ * are no longer limited by the size of a pool. On older runtimes, the events
+ * are dispatched by the fallback pool like {@link AsyncDispatcher} does.
+ * The virtual thread executor is owned by the dispatcher and shutdown on
+ * {@link #close()}, the fallback pool is owned by the caller.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class VirtualThreadDispatcher extends AsyncDispatcher implements AutoCloseable {
+  
+  private final ExecutorService virtualThreads;
+  
+  public VirtualThreadDispatcher(ExecutorService fallbackPool) {
+    this(VirtualThreads.newExecutor(), fallbackPool);
+  }
+  
+  private VirtualThreadDispatcher(ExecutorService virtualThreads, ExecutorService fallbackPool) {
+    super(virtualThreads == null ? fallbackPool : virtualThreads,
+            virtualThreads == null ? Integer.MAX_VALUE : 1);
+    this.virtualThreads = virtualThreads;
+  }
+  
+  /**
+   * Returns true if the subscribers are called by virtual threads.
+   *
+   * @return true if the subscribers are called by virtual threads
+   */
+  public boolean isVirtual() {
+    return virtualThreads != null;
+  }
+  
+  @Override
+  public void close() {
+    if (virtualThreads != null) {
+      virtualThreads.shutdown();
+    }
+  }
+}
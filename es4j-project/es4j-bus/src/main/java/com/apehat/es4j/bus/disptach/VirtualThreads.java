@@ -0,0 +1,36 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Virtual threads are not supported before Java 21, the multi-release
+ * version of this class is in {@code src/main/java21}.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class VirtualThreads {
+  
+  private VirtualThreads() {
+  }
+  
+  static ExecutorService newExecutor() {
+    return null;
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.event;
+
+import com.apehat.es4j.bus.EventHandler;
+
+/**
+ * Receive the outcome of each subscriber of a pending event. Each subscriber
+ * the event was dispatched to reports exactly one outcome.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public interface DeliveryTracker {
+  
+  /**
+   * The handler had handled the event.
+   *
+   * @param handler the handler of subscriber
+   */
+  default void delivered(EventHandler handler) {
+  }
+  
+  /**
+   * The handler, or the subscriber itself, failed to handle the event.
+   *
+   * @param handler the handler of subscriber
+   * @param cause the failure
+   */
+  default void failed(EventHandler handler, Throwable cause) {
+  }
+  
+  /**
+   * The event was discarded by dispatcher before the handler was called.
+   *
+   * @param handler the handler of subscriber
+   */
+  default void discarded(EventHandler handler) {
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of {@link PendingEvent} envelopes, which are recycled
+ * after their last reference was released, so that submitting an event
+ * doesn't allocate a new envelope. Only the envelope is pooled, the
+ * {@link Event} of each submit, which handlers may keep, and the tracker
+ * and tasks of its dispatch are still allocated.
+ * <p>
+ * The envelopes are acquired by the submitting threads and released by the
+ * dispatching threads, so they are kept in a single bounded queue, which
+ * allocates nothing on offer and poll. An envelope is allocated when the
+ * pool is empty, and left to the garbage collector when the pool is full.
+ * <p>
+ * An envelope carries no generation, so a release through a stale
+ * reference, after the envelope was recycled and acquired again, would
+ * release a reference of the new owner. That can't happen as long as each
+ * holder releases the reference it retained exactly once: an envelope is
+ * only recycled after all its references were released, so no holder of
+ * the previous event is left to release it. The dispatchers keep to that
+ * by taking a queued event back before they release it on rejection. A
+ * release beyond that is a double release, which is detected only while
+ * the envelope is idle.
+ * <p>
+ * With leak detection, which is enabled in debug mode by default, each
+ * acquired envelope is weakly tracked with the stack trace of acquisition,
+ * and the envelopes collected without release are reported on acquisition.
+ *
+ * @author hanpengfei
+ * @see EventIdentityService#acquireEvent(Object, String, DeliveryTracker, int)
+ * @since 1.0
+ */
+public final class EnvelopePool {
+  
+  private static final Logger LOGGER = LoggerFactory.getLogger(EnvelopePool.class);
+  
+  private final BlockingQueue<PendingEvent> envelopes;
+  private final boolean detectLeaks;
+  private final ReferenceQueue<PendingEvent> collected = new ReferenceQueue<>();
+  private final Set<Leak> tracked = ConcurrentHashMap.newKeySet();
+  private final LongAdder created = new LongAdder();
+  private final LongAdder recycled = new LongAdder();
+  private final LongAdder leaks = new LongAdder();
+  
+  public EnvelopePool(int capacity) {
+    this(capacity, LOGGER.isDebugEnabled());
+  }
+  
+  public EnvelopePool(int capacity, boolean detectLeaks) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    this.envelopes = new ArrayBlockingQueue<>(capacity);
+    this.detectLeaks = detectLeaks;
+  }
+  
+  PendingEvent acquire() {
+    PendingEvent envelope = envelopes.poll();
+    if (envelope == null) {
+      created.increment();
+      envelope = new PendingEvent(this);
+    }
+    if (detectLeaks) {
+      reportLeaks();
+      final Leak leak = new Leak(envelope, collected);
+      tracked.add(leak);
+      envelope.leak = leak;
+    }
+    return envelope;
+  }
+  
+  void recycle(PendingEvent envelope) {
+    final Leak leak = envelope.leak;
+    if (leak != null) {
+      envelope.leak = null;
+      tracked.remove(leak);
+      leak.clear();
+    }
+    if (envelopes.offer(envelope)) {
+      recycled.increment();
+    }
+  }
+  
+  private void reportLeaks() {
+    Leak leak;
+    while ((leak = (Leak) collected.poll()) != null) {
+      if (tracked.remove(leak)) {
+        leaks.increment();
+        LOGGER.error("Pending event was collected without release, it was acquired at", leak.acquisition);
+      }
+    }
+  }
+  
+  /**
+   * Returns the number of idle envelopes in this pool.
+   *
+   * @return the number of idle envelopes
+   */
+  public int size() {
+    return envelopes.size();
+  }
+  
+  public long created() {
+    return created.sum();
+  }
+  
+  /**
+   * Returns the number of envelopes returned to this pool, the envelopes
+   * which were released while the pool was full are not counted.
+   *
+   * @return the number of recycled envelopes
+   */
+  public long recycled() {
+    return recycled.sum();
+  }
+  
+  /**
+   * Returns the number of leaked envelopes reported, which is always 0
+   * without leak detection.
+   *
+   * @return the number of leaked envelopes
+   */
+  public long leaks() {
+    return leaks.sum();
+  }
+  
+  public boolean isDetectingLeaks() {
+    return detectLeaks;
+  }
+  
+  static final class Leak extends WeakReference<PendingEvent> {
+    
+    private final Throwable acquisition = new Throwable("Pending event acquisition");
+    
+    Leak(PendingEvent envelope, ReferenceQueue<PendingEvent> queue) {
+      super(envelope, queue);
+    }
+  }
+}
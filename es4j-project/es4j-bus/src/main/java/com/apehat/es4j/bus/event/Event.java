@@ -16,6 +16,7 @@
 
 package com.apehat.es4j.bus.event;
 
+import com.apehat.clone.CloningService;
 import com.apehat.es4j.bus.DomainRegistry;
 
 import java.util.Objects;
@@ -31,14 +32,25 @@ public final class Event {
   public static final String SOURCE = "source";
   public static final String EVENT = "event";
   
+  private final long sequence;
   private final long occurredOn;
   private final Object event;
   private final String source;
+  private final PrototypeAccess access;
+  private final CloningService cloningService;
   
   Event(long occurredOn, Object event, String source) {
-    this.event = DomainRegistry.cloningService().deepClone(Objects.requireNonNull(event, "Event prototype must not be null"));
+    this(0, occurredOn, event, source, PrototypeAccess.COPY, DomainRegistry.cloningService());
+  }
+  
+  Event(long sequence, long occurredOn, Object event, String source,
+        PrototypeAccess access, CloningService cloningService) {
+    this.cloningService = cloningService;
+    this.event = cloneIfMutable(Objects.requireNonNull(event, "Event prototype must not be null"));
+    this.sequence = sequence;
     this.occurredOn = occurredOn;
     this.source = source;
+    this.access = access;
   }
   
   @Override
@@ -74,12 +86,45 @@ public final class Event {
             '}';
   }
   
+  /**
+   * Returns the sequence number of this event, which orders the events and
+   * the subscriptions of the bus.
+   *
+   * @return the sequence number
+   * @see com.apehat.es4j.bus.timer.Sequence
+   */
+  public long sequence() {
+    return sequence;
+  }
+  
   public long occurredOn() {
     return occurredOn;
   }
   
+  /**
+   * Returns the prototype of this event. Depending on the {@link
+   * PrototypeAccess} of the bus, it is either a copy of its own, or the
+   * copy shared by all subscribers of the dispatch, which must not be
+   * changed.
+   *
+   * @return the prototype of this event
+   */
   public Object prototype() {
-    return DomainRegistry.cloningService().deepClone(event);
+    return access == PrototypeAccess.SHARED ? event : cloneIfMutable(event);
+  }
+  
+  /**
+   * Returns a copy of the prototype, which the caller can change freely.
+   *
+   * @return a new copy of the prototype, or the prototype itself if it is
+   * immutable
+   */
+  public Object mutableCopy() {
+    return cloneIfMutable(event);
+  }
+  
+  public PrototypeAccess access() {
+    return access;
   }
   
   public String source() {
@@ -89,4 +134,15 @@ public final class Event {
   public Class<?> type() {
     return event.getClass();
   }
+  
+  /*
+   * The immutable prototypes can be shared safely, so they are held by
+   * reference.
+   */
+  private Object cloneIfMutable(Object prototype) {
+    if (Immutability.isImmutable(prototype.getClass())) {
+      return prototype;
+    }
+    return cloningService.deepClone(prototype);
+  }
 }
@@ -16,13 +16,147 @@
 
 package com.apehat.es4j.bus.event;
 
+import com.apehat.clone.CloningService;
+import com.apehat.es4j.bus.DomainRegistry;
+import com.apehat.es4j.bus.timer.Sequence;
+
+import java.time.Clock;
+import java.util.Objects;
+
 /**
+ * Provisions the events of a bus, with the prototype access and the cloning
+ * service of that bus.
+ * <p>
+ * The cloning service is fixed on creation, the services which are created
+ * without one use the {@link DomainRegistry#cloningService() registered}
+ * service at that time.
+ * <p>
+ * Each event is numbered by the sequence, which orders it with the
+ * subscriptions sharing that sequence, and timestamped by the clock. A
+ * {@link com.apehat.es4j.bus.timer.CachedClock} saves reading the system
+ * time for each event. The services created without them use the system
+ * clock and a sequence of their own, so the buses created with them don't
+ * contend on a single counter.
+ * <p>
+ * With an {@link EnvelopePool}, the events acquired by
+ * {@link #acquireEvent(Object, String, DeliveryTracker, int)} are pooled.
+ *
  * @author hanpengfei
  * @since 1.0
  */
 public class EventIdentityService {
   
+  private final PrototypeAccess access;
+  private final CloningService cloningService;
+  private final Clock clock;
+  private final Sequence sequence;
+  private final EnvelopePool pool;
+  
+  public EventIdentityService() {
+    this(PrototypeAccess.COPY);
+  }
+  
+  public EventIdentityService(PrototypeAccess access) {
+    this(access, DomainRegistry.cloningService());
+  }
+  
+  public EventIdentityService(CloningService cloningService) {
+    this(PrototypeAccess.COPY, cloningService);
+  }
+  
+  public EventIdentityService(PrototypeAccess access, CloningService cloningService) {
+    this(access, cloningService, Clock.systemUTC(), new Sequence());
+  }
+  
+  public EventIdentityService(PrototypeAccess access, CloningService cloningService,
+                              Clock clock, Sequence sequence) {
+    this(access, cloningService, clock, sequence, null);
+  }
+  
+  public EventIdentityService(PrototypeAccess access, CloningService cloningService,
+                              Clock clock, Sequence sequence, EnvelopePool pool) {
+    this.access = Objects.requireNonNull(access, "Prototype access must not be null");
+    this.cloningService = Objects.requireNonNull(cloningService, "Cloning service must not be null");
+    this.clock = Objects.requireNonNull(clock, "Clock must not be null");
+    this.sequence = Objects.requireNonNull(sequence, "Sequence must not be null");
+    this.pool = pool;
+  }
+  
   public PendingEvent provisionEvent(Object eventPrototype, String source) {
-    return new PendingEvent(eventPrototype, source);
+    return provisionEvent(eventPrototype, source, PendingEvent.UNTRACKED);
+  }
+  
+  public PendingEvent provisionEvent(Object eventPrototype, String source, DeliveryTracker tracker) {
+    return provisionEvent(eventPrototype, source, tracker, PendingEvent.UNSPECIFIED_PRIORITY);
+  }
+  
+  public PendingEvent provisionEvent(Object eventPrototype, String source,
+                                     DeliveryTracker tracker, int priority) {
+    if (priority < 0 && priority != PendingEvent.UNSPECIFIED_PRIORITY) {
+      throw new IllegalArgumentException("Priority must not be negative");
+    }
+    return new PendingEvent(sequence.next(), clock.millis(), eventPrototype, source, access, cloningService,
+            Objects.requireNonNull(tracker, "Delivery tracker must not be null"), priority);
+  }
+  
+  /**
+   * Provision the event like {@link #provisionEvent(Object, String,
+   * DeliveryTracker, int)}, from the envelope pool of this service if any.
+   * The caller must {@link PendingEvent#release() release} the event after
+   * the last subscriber reported to the tracker, and must not access it
+   * afterwards.
+   *
+   * @param eventPrototype the event prototype
+   * @param source the source of event
+   * @param tracker the tracker of delivery
+   * @param priority the priority of event
+   * @return the pending event, which must be released
+   */
+  public PendingEvent acquireEvent(Object eventPrototype, String source,
+                                   DeliveryTracker tracker, int priority) {
+    if (pool == null) {
+      return provisionEvent(eventPrototype, source, tracker, priority);
+    }
+    if (priority < 0 && priority != PendingEvent.UNSPECIFIED_PRIORITY) {
+      throw new IllegalArgumentException("Priority must not be negative");
+    }
+    Objects.requireNonNull(tracker, "Delivery tracker must not be null");
+    final Event metadata = new Event(sequence.next(), clock.millis(), eventPrototype, source, access, cloningService);
+    final PendingEvent event = pool.acquire();
+    event.init(metadata, tracker, priority);
+    return event;
+  }
+  
+  /**
+   * Returns a copy of the prototype, like the one an event of this service
+   * takes at provisioning, so later changes of the caller are not seen by
+   * the event which is provisioned from it afterwards.
+   *
+   * @param eventPrototype the event prototype
+   * @return a copy of the prototype, or the prototype itself if it is
+   * immutable
+   */
+  public Object snapshotOf(Object eventPrototype) {
+    Objects.requireNonNull(eventPrototype, "Event prototype must not be null");
+    if (Immutability.isImmutable(eventPrototype.getClass())) {
+      return eventPrototype;
+    }
+    return cloningService.deepClone(eventPrototype);
+  }
+  
+  public PrototypeAccess access() {
+    return access;
+  }
+  
+  public CloningService cloningService() {
+    return cloningService;
+  }
+  
+  public Clock clock() {
+    return clock;
+  }
+  
+  public Sequence sequence() {
+    return sequence;
   }
 }
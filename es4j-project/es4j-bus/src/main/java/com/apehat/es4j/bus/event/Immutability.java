@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.event;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.MonthDay;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.Period;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Analyze whether the instances of a class are immutable, the result is
+ * cached per class.
+ * <p>
+ * A class is immutable if it is a well known immutable type, an enum, or
+ * annotated by {@link Immutable}, or if all its instance fields, including
+ * the inherited fields, are final and of primitive or immutable types. The
+ * declared type of a field must be final, or known, or annotated, since
+ * the field could refer to a mutable subtype otherwise. Arrays are never
+ * immutable.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class Immutability {
+  
+  private static final Set<Class<?>> KNOWN_IMMUTABLE_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+          String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class,
+          Long.class, Float.class, Double.class, BigInteger.class, BigDecimal.class, UUID.class,
+          Class.class, Instant.class, Duration.class, Period.class, LocalDate.class, LocalTime.class,
+          LocalDateTime.class, OffsetTime.class, OffsetDateTime.class, ZonedDateTime.class,
+          ZoneId.class, Year.class, YearMonth.class, MonthDay.class)));
+  
+  private static final ClassValue<Boolean> IMMUTABLE = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+      return analyze(type, new HashSet<>());
+    }
+  };
+  
+  private Immutability() {
+  }
+  
+  public static boolean isImmutable(Class<?> type) {
+    return IMMUTABLE.get(type);
+  }
+  
+  /*
+   * A class which is being analyzed is assumed immutable, so that the
+   * recursive types are analyzed once.
+   */
+  private static boolean analyze(Class<?> type, Set<Class<?>> analyzing) {
+    if (type.isPrimitive() || isTrusted(type)) {
+      return true;
+    }
+    if (type.isArray() || type.isInterface()) {
+      return false;
+    }
+    if (!analyzing.add(type)) {
+      return true;
+    }
+    for (Class<?> cls = type; cls != Object.class && cls != null; cls = cls.getSuperclass()) {
+      if (isTrusted(cls)) {
+        return true;
+      }
+      for (Field field : cls.getDeclaredFields()) {
+        final int modifiers = field.getModifiers();
+        if (Modifier.isStatic(modifiers)) {
+          continue;
+        }
+        if (!Modifier.isFinal(modifiers) || !isImmutableField(field.getType(), analyzing)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+  
+  private static boolean isImmutableField(Class<?> type, Set<Class<?>> analyzing) {
+    if (type.isPrimitive() || isTrusted(type)) {
+      return true;
+    }
+    // the field may refer to a mutable subtype
+    return Modifier.isFinal(type.getModifiers()) && analyze(type, analyzing);
+  }
+  
+  private static boolean isTrusted(Class<?> type) {
+    return KNOWN_IMMUTABLE_TYPES.contains(type)
+            || type.isEnum()
+            || (type.getSuperclass() != null && type.getSuperclass().isEnum())
+            || ZoneId.class.isAssignableFrom(type)
+            || isAnnotated(type);
+  }
+  
+  private static boolean isAnnotated(Class<?> type) {
+    if (type.isAnnotationPresent(Immutable.class)) {
+      return true;
+    }
+    for (Class<?> cls = type; cls != null; cls = cls.getSuperclass()) {
+      for (Class<?> implemented : cls.getInterfaces()) {
+        if (implemented.isAnnotationPresent(Immutable.class) || isAnnotated(implemented)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -16,7 +16,22 @@
 
 package com.apehat.es4j.bus.event;
 
+import com.apehat.clone.CloningService;
+import com.apehat.es4j.bus.EventHandler;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /**
+ * An event pending to be delivered to its subscribers.
+ * <p>
+ * A pending event is reference counted, it's created with one reference,
+ * which is released after the last subscriber reported. A dispatcher which
+ * delivers it after dispatch returned retains a reference of its own until
+ * the delivery was done. A pending event must not be accessed after its
+ * last reference was released, and the pending events acquired from an
+ * {@link EnvelopePool} are recycled then, while the {@link Event} itself is
+ * never recycled, as handlers may keep it.
+ *
  * @author hanpengfei
  * @since 1.0
  */
@@ -38,21 +53,133 @@ public class PendingEvent {
    * 为对象添加版本号，并在（写）操作时，检查对象版本是否与当前版本一致。（参考 MVCC)
    */
   
+  /**
+   * The priority of an event, which was not specified on submit.
+   */
+  public static final int UNSPECIFIED_PRIORITY = -1;
+  
+  static final DeliveryTracker UNTRACKED = new DeliveryTracker() {
+  };
+  
+  private static final AtomicIntegerFieldUpdater<PendingEvent> REFERENCES =
+          AtomicIntegerFieldUpdater.newUpdater(PendingEvent.class, "references");
+  
+  private final EnvelopePool pool;
   private Event metadata;
+  private DeliveryTracker tracker;
+  private int priority;
+  private volatile int references;
+  EnvelopePool.Leak leak;
+  
+  PendingEvent(long sequence, long occurredOn, Object prototype, String source, PrototypeAccess access,
+               CloningService cloningService, DeliveryTracker tracker, int priority) {
+    this(null);
+    init(new Event(sequence, occurredOn, prototype, source, access, cloningService), tracker, priority);
+  }
   
-  PendingEvent(Object prototype, String source) {
-    this.metadata = new Event(System.currentTimeMillis(), prototype, source);
+  PendingEvent(EnvelopePool pool) {
+    this.pool = pool;
   }
   
+  void init(Event metadata, DeliveryTracker tracker, int priority) {
+    this.metadata = metadata;
+    this.tracker = tracker;
+    this.priority = priority;
+    this.references = 1;
+  }
+  
+  /**
+   * Retain a reference, which must be released by {@link #release()}.
+   *
+   * @return this pending event
+   * @throws IllegalStateException if this pending event was released
+   */
+  public PendingEvent retain() {
+    int current;
+    do {
+      current = references;
+      if (current <= 0) {
+        throw new IllegalStateException("Pending event was released");
+      }
+    } while (!REFERENCES.compareAndSet(this, current, current + 1));
+    return this;
+  }
+  
+  /**
+   * Release a reference, the pending event is recycled by its pool after
+   * the last reference was released.
+   *
+   * @return true if the last reference was released
+   * @throws IllegalStateException if this pending event was released
+   */
+  public boolean release() {
+    int current;
+    do {
+      current = references;
+      if (current <= 0) {
+        throw new IllegalStateException("Pending event was released");
+      }
+    } while (!REFERENCES.compareAndSet(this, current, current - 1));
+    if (current > 1) {
+      return false;
+    }
+    metadata = null;
+    tracker = UNTRACKED;
+    priority = UNSPECIFIED_PRIORITY;
+    if (pool != null) {
+      pool.recycle(this);
+    }
+    return true;
+  }
+  
+  public int references() {
+    return references;
+  }
+  
+  /**
+   * Returns the event to be delivered.
+   *
+   * @return the event
+   * @throws IllegalStateException if this pending event was released
+   */
   public Event toEvent() {
+    final Event metadata = this.metadata;
+    if (metadata == null) {
+      throw new IllegalStateException("Pending event was released");
+    }
     return metadata;
   }
   
+  public long sequence() {
+    return toEvent().sequence();
+  }
+  
   public long occurredOn() {
-    return metadata.occurredOn();
+    return toEvent().occurredOn();
   }
   
   public Class<?> type() {
-    return metadata.type();
+    return toEvent().type();
+  }
+  
+  /**
+   * Returns the priority specified on submit, 0 is the highest priority.
+   *
+   * @return the priority, or {@link #UNSPECIFIED_PRIORITY}
+   */
+  public int priority() {
+    return priority;
+  }
+  
+  public void delivered(EventHandler handler) {
+    tracker.delivered(handler);
+  }
+  
+  public void failed(EventHandler handler, Throwable cause) {
+    tracker.failed(handler, cause);
+  }
+  
+  public void discarded(EventHandler handler) {
+    tracker.discarded(handler);
   }
 }
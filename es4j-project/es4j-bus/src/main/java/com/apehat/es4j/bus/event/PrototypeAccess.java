@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.event;
+
+/**
+ * How the subscribers of a dispatch access the prototype of an event.
+ * <p>
+ * The prototype is copied once when an event is provisioned, so the
+ * submitter can't change it after submit. The access mode decides whether
+ * the subscribers share that copy, or each one gets a copy of its own.
+ *
+ * @author hanpengfei
+ * @see Event#prototype()
+ * @see Event#mutableCopy()
+ * @since 1.0
+ */
+public enum PrototypeAccess {
+  
+  /**
+   * Each access to the prototype returns a new copy, so subscribers can
+   * change their prototypes without affecting each other. The copies
+   * allocated by a dispatch grow with the number of subscribers.
+   */
+  COPY,
+  
+  /**
+   * Each access to the prototype returns the copy taken when the event was
+   * provisioned, which is shared by all subscribers of a dispatch and must be
+   * treated as read-only. A subscriber which needs to change it asks for a
+   * {@link Event#mutableCopy() mutable copy}, so a dispatch allocates a
+   * single copy however many subscribers it has.
+   */
+  SHARED
+}
@@ -16,13 +16,22 @@
 
 package com.apehat.es4j.bus.subscriber;
 
-import com.apehat.AbstractClassItem;
-import com.apehat.ClassItemCombiner;
-import com.apehat.Item;
-
-import java.util.*;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
+ * A type composed by a flat list of include and exclude rules.
+ * <p>
+ * The rules are ordered by the time they were added, and a class is assignable
+ * if the last rule which can be assigned from it is an include rule. The
+ * decision of each class is memoized, so after warm-up a subscription match
+ * is only a single lookup.
+ *
  * @author hanpengfei
  * @since 1.0
  */
@@ -30,26 +39,44 @@ public final class CompositeType implements Type {
   
   private static final long serialVersionUID = -467998764902780604L;
   
-  private final Set<Item<Class<?>>> items;
+  private final Class<?>[] types;
+  private final boolean[] includes;
+  private transient ClassValue<Boolean> decisions = newDecisions();
   
   public CompositeType(Class<?>... types) {
-    this(items(types));
+    this(includes(types), null);
   }
   
-  private CompositeType(Set<Item<Class<?>>> items) {
-    this.items = Collections.unmodifiableSet(new ClassItemCombiner(items).rebuild());
+  private CompositeType(Class<?>[] types, boolean[] includes) {
+    this.types = types;
+    if (includes == null) {
+      includes = new boolean[types.length];
+      Arrays.fill(includes, true);
+    }
+    this.includes = includes;
   }
   
-  private static Set<Item<Class<?>>> items(Class<?>... types) {
+  private static Class<?>[] includes(Class<?>... types) {
     if (types == null || types.length == 0) {
       throw new IllegalArgumentException("Must specified types");
     }
-    final Set<Class<?>> set = new HashSet<>(Arrays.asList(types));
-    final Set<Item<Class<?>>> items = new HashSet<>();
-    for (Class<?> cls : set) {
-      items.add(new IncludeType(cls));
+    final Set<Class<?>> set = new LinkedHashSet<>(Arrays.asList(types));
+    final List<Class<?>> includes = new ArrayList<>(set.size());
+    for (Class<?> type : set) {
+      if (!isCovered(type, set)) {
+        includes.add(type);
+      }
+    }
+    return includes.toArray(new Class<?>[0]);
+  }
+  
+  private static boolean isCovered(Class<?> type, Set<Class<?>> types) {
+    for (Class<?> other : types) {
+      if (other != type && other.isAssignableFrom(type)) {
+        return true;
+      }
     }
-    return items;
+    return false;
   }
   
   @Override
@@ -57,18 +84,7 @@ public final class CompositeType implements Type {
     if (isAssignableFrom(type)) {
       return this;
     }
-    final Set<Item<Class<?>>> newItems = new HashSet<>();
-    boolean added = false;
-    for (Item<Class<?>> item : items) {
-      if (item.value().isAssignableFrom(type)) {
-        newItems.add(item.add(type));
-        added = true;
-      }
-    }
-    if (!added) {
-      newItems.add(new IncludeType(type));
-    }
-    return new CompositeType(newItems);
+    return append(type, true);
   }
   
   @Override
@@ -76,30 +92,68 @@ public final class CompositeType implements Type {
     if (!isAssignableFrom(type)) {
       return this;
     }
-    final Set<Item<Class<?>>> newItems = new HashSet<>();
-    for (Item<Class<?>> item : items) {
-      if (item.value() == type) {
-        continue;
-      }
-      if (item.value().isAssignableFrom(type)) {
-        newItems.add(item.remove(type));
-      } else {
-        newItems.add(item);
+    return append(type, false);
+  }
+  
+  /*
+   * The new rule overrides all rules of its subtypes, so those rules are
+   * dropped, and an exclude rule without any include rule before it is
+   * meaningless.
+   */
+  private Type append(Class<?> type, boolean include) {
+    final List<Class<?>> newTypes = new ArrayList<>(types.length + 1);
+    final List<Boolean> newIncludes = new ArrayList<>(types.length + 1);
+    for (int i = 0; i < types.length; i++) {
+      if (!type.isAssignableFrom(types[i])) {
+        newTypes.add(types[i]);
+        newIncludes.add(includes[i]);
       }
     }
-    return new CompositeType(newItems);
+    newTypes.add(type);
+    newIncludes.add(include);
+    
+    int first = newIncludes.indexOf(Boolean.TRUE);
+    if (first < 0) {
+      first = newTypes.size();
+    }
+    final int length = newTypes.size() - first;
+    final Class<?>[] compiledTypes = new Class<?>[length];
+    final boolean[] compiledIncludes = new boolean[length];
+    for (int i = 0; i < length; i++) {
+      compiledTypes[i] = newTypes.get(first + i);
+      compiledIncludes[i] = newIncludes.get(first + i);
+    }
+    return new CompositeType(compiledTypes, compiledIncludes);
   }
   
   @Override
   public boolean isAssignableFrom(Class<?> cls) {
-    for (Item<Class<?>> item : items) {
-      if (item.contains(cls)) {
-        return true;
+    return decisions.get(cls);
+  }
+  
+  private boolean decide(Class<?> cls) {
+    for (int i = types.length - 1; i >= 0; i--) {
+      if (types[i].isAssignableFrom(cls)) {
+        return includes[i];
       }
     }
     return false;
   }
   
+  private ClassValue<Boolean> newDecisions() {
+    return new ClassValue<Boolean>() {
+      @Override
+      protected Boolean computeValue(Class<?> type) {
+        return decide(type);
+      }
+    };
+  }
+  
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    this.decisions = newDecisions();
+  }
+  
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -109,76 +163,29 @@ public final class CompositeType implements Type {
       return false;
     }
     CompositeType that = (CompositeType) o;
-    return Objects.equals(items, that.items);
+    return Arrays.equals(types, that.types) &&
+            Arrays.equals(includes, that.includes);
   }
   
   @Override
   public int hashCode() {
     int hash = 157;
-    hash += 31 * hash + items.hashCode();
+    hash += 31 * hash + Arrays.hashCode(types);
+    hash += 31 * hash + Arrays.hashCode(includes);
     return hash;
   }
   
   @Override
   public String toString() {
+    final StringBuilder rules = new StringBuilder();
+    for (int i = 0; i < types.length; i++) {
+      if (i > 0) {
+        rules.append(", ");
+      }
+      rules.append(includes[i] ? '+' : '-').append(types[i].getName());
+    }
     return "CompositeType{" +
-            "items=" + items +
+            "rules=[" + rules + ']' +
             '}';
   }
-  
-  private static final class ExceptedType extends AbstractClassItem {
-    
-    private static final long serialVersionUID = 1921985160179831733L;
-    
-    ExceptedType(Class<?> value) {
-      super(value);
-    }
-    
-    private ExceptedType(Class<?> value, Set<Item<Class<?>>> slots) {
-      super(value, new ClassItemCombiner(slots).rebuild());
-    }
-    
-    @Override
-    public Item<Class<?>> newInstance(Class<?> value, Set<Item<Class<?>>> slots) {
-      return new ExceptedType(value, slots);
-    }
-    
-    @Override
-    public Item<Class<?>> newReverseInstance(Class<?> value) {
-      return new IncludeType(value);
-    }
-    
-    @Override
-    public boolean isEnable() {
-      return false;
-    }
-  }
-  
-  private static final class IncludeType extends AbstractClassItem {
-    
-    private static final long serialVersionUID = -1321655907319211783L;
-    
-    IncludeType(Class<?> value) {
-      super(value);
-    }
-    
-    private IncludeType(Class<?> value, Set<Item<Class<?>>> slots) {
-      super(value, new ClassItemCombiner(slots).rebuild());
-    }
-    
-    @Override
-    public Item<Class<?>> newInstance(Class<?> value, Set<Item<Class<?>>> slots) {
-      return new IncludeType(value, slots);
-    }
-    
-    @Override
-    public Item<Class<?>> newReverseInstance(Class<?> value) {
-      return new ExceptedType(value);
-    }
-    
-    @Override
-    public boolean isEnable() {
-      return true;
-    }
-  }
 }
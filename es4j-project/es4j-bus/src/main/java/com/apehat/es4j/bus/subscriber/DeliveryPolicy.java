@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.subscriber;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency budget and circuit breaking of a subscriber.
+ * <p>
+ * A handler which runs over its latency budget is interrupted, and fails
+ * with {@link SubscriberTimeoutException}. After the specified number of
+ * consecutive failures, including timeouts, the circuit of subscriber is
+ * opened, and the subscriber is skipped until the cooldown elapsed. The next
+ * failure after cooldown opens the circuit again, and a success closes it.
+ * <p>
+ * A submitted event is retried by the {@link RetryPolicy} after its handler
+ * failed, and dead lettered after the last retry failed.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class DeliveryPolicy {
+  
+  /**
+   * The policy without latency budget, which never opens the circuit.
+   */
+  public static final DeliveryPolicy UNBOUNDED = new DeliveryPolicy(0, 0, 0, TimeUnit.NANOSECONDS);
+  
+  private final long latencyBudgetNanos;
+  private final int failureThreshold;
+  private final long cooldownNanos;
+  private final RetryPolicy retry;
+  
+  /**
+   * @param latencyBudget the latency budget of handler, or 0 if unbounded
+   * @param failureThreshold the consecutive failures to open the circuit, or
+   * 0 if never open
+   * @param cooldown the time to skip the subscriber after the circuit opened
+   * @param unit the time unit of latency budget and cooldown
+   */
+  public DeliveryPolicy(long latencyBudget, int failureThreshold, long cooldown, TimeUnit unit) {
+    this(latencyBudget, failureThreshold, cooldown, unit, RetryPolicy.NEVER);
+  }
+  
+  /**
+   * @param latencyBudget the latency budget of handler, or 0 if unbounded
+   * @param failureThreshold the consecutive failures to open the circuit, or
+   * 0 if never open
+   * @param cooldown the time to skip the subscriber after the circuit opened
+   * @param unit the time unit of latency budget and cooldown
+   * @param retry the retry policy of submitted events
+   */
+  public DeliveryPolicy(long latencyBudget, int failureThreshold, long cooldown, TimeUnit unit,
+                        RetryPolicy retry) {
+    if (latencyBudget < 0) {
+      throw new IllegalArgumentException("Latency budget must not be negative");
+    }
+    if (failureThreshold < 0) {
+      throw new IllegalArgumentException("Failure threshold must not be negative");
+    }
+    if (cooldown < 0) {
+      throw new IllegalArgumentException("Cooldown must not be negative");
+    }
+    this.latencyBudgetNanos = unit.toNanos(latencyBudget);
+    this.failureThreshold = failureThreshold;
+    this.cooldownNanos = unit.toNanos(cooldown);
+    this.retry = Objects.requireNonNull(retry, "Retry policy must not be null");
+  }
+  
+  /**
+   * Returns a policy which only retries by the specified retry policy.
+   *
+   * @param retry the retry policy
+   * @return the delivery policy
+   */
+  public static DeliveryPolicy retrying(RetryPolicy retry) {
+    return new DeliveryPolicy(0, 0, 0, TimeUnit.NANOSECONDS, retry);
+  }
+  
+  public long latencyBudgetNanos() {
+    return latencyBudgetNanos;
+  }
+  
+  public int failureThreshold() {
+    return failureThreshold;
+  }
+  
+  public long cooldownNanos() {
+    return cooldownNanos;
+  }
+  
+  public RetryPolicy retry() {
+    return retry;
+  }
+  
+  boolean isBudgeted() {
+    return latencyBudgetNanos > 0;
+  }
+  
+  boolean isBreakable() {
+    return failureThreshold > 0;
+  }
+  
+  @Override
+  public String toString() {
+    return "DeliveryPolicy{latencyBudgetNanos=" + latencyBudgetNanos
+            + ", failureThreshold=" + failureThreshold
+            + ", cooldownNanos=" + cooldownNanos
+            + ", retry=" + retry + '}';
+  }
+}
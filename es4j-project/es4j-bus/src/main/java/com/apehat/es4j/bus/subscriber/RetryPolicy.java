@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.subscriber;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The retries of a submitted event, after its subscriber failed.
+ * <p>
+ * The backoff before the n-th retry is
+ * {@code min(initialBackoff * multiplier^(n - 1), maxBackoff)}.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class RetryPolicy {
+  
+  /**
+   * The policy which never retries.
+   */
+  public static final RetryPolicy NEVER = new RetryPolicy(0, 0, 1, 0, TimeUnit.NANOSECONDS);
+  
+  private final int maxRetries;
+  private final long initialBackoffNanos;
+  private final double multiplier;
+  private final long maxBackoffNanos;
+  
+  public RetryPolicy(int maxRetries, long initialBackoff, double multiplier, long maxBackoff, TimeUnit unit) {
+    if (maxRetries < 0) {
+      throw new IllegalArgumentException("Max retries must not be negative");
+    }
+    if (initialBackoff < 0 || maxBackoff < initialBackoff) {
+      throw new IllegalArgumentException("Backoff must be in [0, maxBackoff]");
+    }
+    if (!(multiplier >= 1)) {
+      throw new IllegalArgumentException("Multiplier must not be less than 1");
+    }
+    this.maxRetries = maxRetries;
+    this.initialBackoffNanos = unit.toNanos(initialBackoff);
+    this.multiplier = multiplier;
+    this.maxBackoffNanos = unit.toNanos(maxBackoff);
+  }
+  
+  public int maxRetries() {
+    return maxRetries;
+  }
+  
+  public boolean isRetryable() {
+    return maxRetries > 0;
+  }
+  
+  /**
+   * Returns the backoff before the specified retry.
+   *
+   * @param retry the retry, starts from 1
+   * @return the backoff in nanoseconds
+   */
+  public long backoffNanos(int retry) {
+    if (retry < 1 || retry > maxRetries) {
+      throw new IllegalArgumentException("Retry must be in [1, " + maxRetries + "]");
+    }
+    final double backoff = initialBackoffNanos * Math.pow(multiplier, retry - 1);
+    return backoff >= maxBackoffNanos ? maxBackoffNanos : (long) backoff;
+  }
+  
+  @Override
+  public String toString() {
+    return "RetryPolicy{maxRetries=" + maxRetries + ", initialBackoffNanos=" + initialBackoffNanos
+            + ", multiplier=" + multiplier + ", maxBackoffNanos=" + maxBackoffNanos + '}';
+  }
+}
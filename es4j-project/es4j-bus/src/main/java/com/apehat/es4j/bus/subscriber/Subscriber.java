@@ -16,10 +16,20 @@
 
 package com.apehat.es4j.bus.subscriber;
 
+import com.apehat.es4j.bus.BatchEventHandler;
 import com.apehat.es4j.bus.EventHandler;
+import com.apehat.es4j.bus.event.Event;
 import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.timer.Sequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author hanpengfei
@@ -36,24 +46,181 @@ public class Subscriber {
    * 6. 否则，进行直接的调用
    */
   
+  private static final Logger LOGGER = LoggerFactory.getLogger(Subscriber.class);
+  
   private final EventHandler handler;
-  private final long subscriptionOn;
+  private final long sequence;
   private final Type type;
+  private final DeliveryPolicy policy;
+  private final AtomicInteger failures = new AtomicInteger();
+  private volatile long openUntil;
+  private final AtomicBoolean probing = new AtomicBoolean();
+  private volatile boolean open;
   
-  Subscriber(EventHandler handler, Type type) {
-    this.subscriptionOn = System.currentTimeMillis();
+  Subscriber(EventHandler handler, Type type, DeliveryPolicy policy, Sequence sequence) {
+    this.sequence = sequence.next();
     this.handler = Objects.requireNonNull(handler, "Handler must not be null");
     this.type = Objects.requireNonNull(type, "Subscription type must not be null.");
+    this.policy = Objects.requireNonNull(policy, "Delivery policy must not be null");
   }
   
+  /**
+   * Deliver the event to the handler. An event which isn't subscribed, or
+   * occurred before the subscription, is reported as discarded rather than
+   * failed, so it is never retried, and then rejected.
+   *
+   * @param event the event to deliver
+   * @throws IllegalArgumentException if the event isn't deliverable to this
+   * subscriber
+   */
   public void onEvent(PendingEvent event) {
     if (!isSubscribed(event.type())) {
+      event.discarded(handler);
       throw new IllegalArgumentException("Hadn't subscription to " + event.type());
     }
-    if (subscriptionOn > event.occurredOn()) {
+    if (sequence > event.sequence()) {
+      event.discarded(handler);
       throw new IllegalArgumentException("Event already occurred");
     }
-    handler.onEvent(event.toEvent());
+    try {
+      if (!admit()) {
+        LOGGER.debug("Circuit of {} is open, skip {}", handler, event);
+        event.discarded(handler);
+        return;
+      }
+      handle(event, null);
+    } catch (RuntimeException | Error e) {
+      event.failed(handler, e);
+      throw e;
+    }
+    event.delivered(handler);
+  }
+  
+  /**
+   * Deliver the events to the batch handler at once. The events which are
+   * not deliverable to this subscriber are reported as discarded and left
+   * out of the batch. The others are reported as delivered after the batch
+   * handler returned, or all as failed if it failed, and are skipped
+   * together while the circuit is open.
+   *
+   * @param events the events to deliver
+   * @throws IllegalStateException if the handler isn't a batch handler
+   */
+  public void onEvents(List<PendingEvent> events) {
+    if (!(handler instanceof BatchEventHandler)) {
+      throw new IllegalStateException(handler + " doesn't handle batches");
+    }
+    final List<PendingEvent> deliverable = new ArrayList<>(events.size());
+    for (PendingEvent event : events) {
+      if (isSubscribed(event.type()) && sequence <= event.sequence()) {
+        deliverable.add(event);
+      } else {
+        LOGGER.debug("{} isn't deliverable to {}", event, handler);
+        event.discarded(handler);
+      }
+    }
+    if (deliverable.isEmpty()) {
+      return;
+    }
+    try {
+      if (!admit()) {
+        LOGGER.debug("Circuit of {} is open, skip {} events", handler, deliverable.size());
+        for (PendingEvent event : deliverable) {
+          event.discarded(handler);
+        }
+        return;
+      }
+      final List<Event> batch = new ArrayList<>(deliverable.size());
+      for (PendingEvent event : deliverable) {
+        batch.add(event.toEvent());
+      }
+      handle(null, Collections.unmodifiableList(batch));
+    } catch (RuntimeException | Error e) {
+      for (PendingEvent event : deliverable) {
+        event.failed(handler, e);
+      }
+      throw e;
+    }
+    for (PendingEvent event : deliverable) {
+      event.delivered(handler);
+    }
+  }
+  
+  /*
+   * A handler which ran over its budget is counted as failed at the deadline,
+   * by the watchdog, so the circuit may open while the handler is still
+   * blocked, and is not counted again when it returns. Either the event or
+   * the batch is handled.
+   */
+  private void handle(PendingEvent event, List<Event> batch) {
+    final Watchdog.Watch watch = policy.isBudgeted()
+            ? Watchdog.watch(policy.latencyBudgetNanos(), () -> trip(timeout()))
+            : null;
+    try {
+      if (batch == null) {
+        handler.onEvent(event.toEvent());
+      } else {
+        ((BatchEventHandler) handler).onEvents(batch);
+      }
+    } catch (RuntimeException | Error e) {
+      if (watch == null || !watch.stop()) {
+        trip(e);
+      }
+      throw e;
+    }
+    if (watch != null && watch.stop()) {
+      throw timeout();
+    }
+    if (policy.isBreakable() && failures.get() != 0) {
+      failures.set(0);
+      open = false;
+      probing.set(false);
+    }
+  }
+  
+  private SubscriberTimeoutException timeout() {
+    return new SubscriberTimeoutException(
+            handler + " ran over latency budget " + policy.latencyBudgetNanos() + "ns");
+  }
+  
+  /*
+   * Once the cooldown of an open circuit passed, only one event is admitted
+   * as the probe, the circuit is closed if it succeeds and opened for
+   * another cooldown if it fails.
+   */
+  private boolean admit() {
+    if (!open) {
+      return true;
+    }
+    return System.nanoTime() - openUntil >= 0 && probing.compareAndSet(false, true);
+  }
+  
+  private void trip(Throwable cause) {
+    if (policy.isBreakable() && failures.incrementAndGet() >= policy.failureThreshold()) {
+      openUntil = System.nanoTime() + policy.cooldownNanos();
+      if (!open) {
+        open = true;
+        LOGGER.warn("Open circuit of " + handler + " after " + failures.get() + " failures", cause);
+      }
+      probing.set(false);
+    }
+  }
+  
+  /**
+   * Returns true if the subscriber is skipped, because of its failures.
+   *
+   * @return true if the circuit is open
+   */
+  public boolean isCircuitOpen() {
+    return open && (System.nanoTime() - openUntil < 0 || probing.get());
+  }
+  
+  public DeliveryPolicy policy() {
+    return policy;
+  }
+  
+  public EventHandler handler() {
+    return handler;
   }
   
   public boolean isSubscribed(Class<?> cls) {
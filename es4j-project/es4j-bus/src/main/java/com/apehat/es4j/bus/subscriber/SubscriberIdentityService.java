@@ -17,7 +17,12 @@
 package com.apehat.es4j.bus.subscriber;
 
 import com.apehat.es4j.bus.EventHandler;
+import com.apehat.es4j.bus.timer.Sequence;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -28,17 +33,87 @@ import java.util.Set;
 public class SubscriberIdentityService {
   
   private final SubscriberRepository subscriberRepo;
+  private final Sequence sequence;
   
+  /**
+   * Creates a service which numbers the subscriptions by a sequence of its
+   * own. To deliver the events of an
+   * {@link com.apehat.es4j.bus.event.EventIdentityService}, create it with
+   * the sequence of that service instead.
+   *
+   * @param subscriberRepo the repository of subscribers
+   */
   public SubscriberIdentityService(SubscriberRepository subscriberRepo) {
+    this(subscriberRepo, new Sequence());
+  }
+  
+  /**
+   * @param subscriberRepo the repository of subscribers
+   * @param sequence the sequence of subscriptions, which must be shared with
+   * the events dispatched to them
+   */
+  public SubscriberIdentityService(SubscriberRepository subscriberRepo, Sequence sequence) {
     this.subscriberRepo = Objects.requireNonNull(subscriberRepo,
             "Subscriber repository must not be null");
+    this.sequence = Objects.requireNonNull(sequence, "Sequence must not be null");
   }
   
   public void provisionSubscriber(Class<?> type, EventHandler handler) {
-    this.subscriberRepo.save(new Subscriber(handler, Type.of(type)));
+    provisionSubscriber(type, handler, DeliveryPolicy.UNBOUNDED);
+  }
+  
+  public void provisionSubscriber(Class<?> type, EventHandler handler, DeliveryPolicy policy) {
+    this.subscriberRepo.save(new Subscriber(handler, Type.of(type), policy, sequence));
+  }
+  
+  public void provisionSubscribers(Map<? extends EventHandler, ? extends Class<?>> subscriptions) {
+    provisionSubscribers(subscriptions, Collections.emptyMap());
+  }
+  
+  /**
+   * Provision the subscribers of the specified subscriptions in a batch.
+   *
+   * @param subscriptions the subscribed types, by handler
+   * @param policies the delivery policies, by handler, a handler without
+   * policy is subscribed with {@link DeliveryPolicy#UNBOUNDED}
+   */
+  public void provisionSubscribers(Map<? extends EventHandler, ? extends Class<?>> subscriptions,
+                                   Map<? extends EventHandler, DeliveryPolicy> policies) {
+    final List<Subscriber> subscribers = new ArrayList<>(subscriptions.size());
+    for (Map.Entry<? extends EventHandler, ? extends Class<?>> subscription : subscriptions.entrySet()) {
+      final DeliveryPolicy policy = policies.get(subscription.getKey());
+      subscribers.add(new Subscriber(subscription.getKey(), Type.of(subscription.getValue()),
+              policy == null ? DeliveryPolicy.UNBOUNDED : policy, sequence));
+    }
+    this.subscriberRepo.saveAll(subscribers);
+  }
+  
+  public boolean removeSubscriber(EventHandler handler) {
+    return this.subscriberRepo.remove(handler) != null;
   }
   
   public Set<Subscriber> subscribersWith(Class<?> type) {
     return subscriberRepo.subscriberWithType(type);
   }
+  
+  public Subscriber[] snapshotWith(Class<?> type) {
+    return subscriberRepo.snapshotWithType(type);
+  }
+  
+  /**
+   * Returns the registered subscriber of the specified handler, if it is
+   * subscribed to the specified type.
+   *
+   * @param type the event type
+   * @param handler the handler of subscriber
+   * @return the subscriber, or null if the handler isn't subscribed to type
+   */
+  public Subscriber subscriberOf(Class<?> type, EventHandler handler) {
+    for (Subscriber subscriber : subscriberRepo.snapshotWithType(type)) {
+      if (subscriber.handler().equals(handler)) {
+        return subscriber;
+      }
+    }
+    return null;
+  }
 }
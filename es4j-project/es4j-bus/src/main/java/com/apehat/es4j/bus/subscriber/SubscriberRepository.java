@@ -16,6 +16,9 @@
 
 package com.apehat.es4j.bus.subscriber;
 
+import com.apehat.es4j.bus.EventHandler;
+
+import java.util.Collection;
 import java.util.Set;
 
 /**
@@ -24,7 +27,47 @@ import java.util.Set;
  */
 public interface SubscriberRepository {
   
-  void save(Subscriber subscriber);
+  /**
+   * Register the specified subscriber.
+   *
+   * @param subscriber the subscriber to register
+   * @return true if the subscriber was registered, false if an equal subscriber already registered
+   */
+  boolean save(Subscriber subscriber);
+  
+  /**
+   * Register all the specified subscribers. A concurrent lookup of a type
+   * should see either none or all of its subscribers in the batch. This
+   * default registers them one by one, so it may expose part of the batch;
+   * implementations should override it to publish the batch at once and to
+   * avoid rebuilding their state for each subscriber.
+   *
+   * @param subscribers the subscribers to register
+   */
+  default void saveAll(Collection<? extends Subscriber> subscribers) {
+    for (Subscriber subscriber : subscribers) {
+      save(subscriber);
+    }
+  }
+  
+  /**
+   * Remove the subscriber of the specified handler.
+   *
+   * @param handler the handler of the subscriber to remove
+   * @return the removed subscriber, or null if no subscriber with the handler
+   */
+  Subscriber remove(EventHandler handler);
   
   Set<Subscriber> subscriberWithType(Class<?> type);
+  
+  /**
+   * Returns the subscribers of the specified type as an array. The returned
+   * array may be shared between callers, so it must not be modified.
+   *
+   * @param type the event type
+   * @return the subscribers of the specified type
+   */
+  default Subscriber[] snapshotWithType(Class<?> type) {
+    return subscriberWithType(type).toArray(new Subscriber[0]);
+  }
 }
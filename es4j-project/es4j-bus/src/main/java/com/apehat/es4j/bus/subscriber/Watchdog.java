@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.subscriber;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interrupt the handlers which ran over their latency budget.
+ * <p>
+ * All watches are scheduled on a single daemon thread, which is started on
+ * the first watch. The expiry callback of a watch runs on that thread at the
+ * deadline, so a handler which ignores the interrupt is noticed anyway.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class Watchdog {
+  
+  private Watchdog() {
+  }
+  
+  /**
+   * Watch the current thread, until the returned watch is stopped.
+   *
+   * @param budgetNanos the budget of current thread
+   * @param expiry the callback run when the budget expired, if the watch
+   * wasn't stopped before
+   * @return the watch of current thread
+   */
+  static Watch watch(long budgetNanos, Runnable expiry) {
+    final Watch watch = new Watch(Thread.currentThread(), expiry);
+    watch.timer = Timer.INSTANCE.schedule(watch, budgetNanos, TimeUnit.NANOSECONDS);
+    return watch;
+  }
+  
+  static final class Watch implements Runnable {
+    
+    private static final int RUNNING = 0;
+    private static final int STOPPED = 1;
+    private static final int EXPIRED = 2;
+    
+    private final Thread thread;
+    private final Runnable expiry;
+    private final AtomicInteger state = new AtomicInteger(RUNNING);
+    private volatile ScheduledFuture<?> timer;
+    private boolean interrupted;
+    
+    private Watch(Thread thread, Runnable expiry) {
+      this.thread = thread;
+      this.expiry = expiry;
+    }
+    
+    /*
+     * A thread which was already interrupted is not interrupted again, so
+     * its interrupt is left to it by stop().
+     */
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (!state.compareAndSet(RUNNING, EXPIRED)) {
+          return;
+        }
+        if (!thread.isInterrupted()) {
+          interrupted = true;
+          thread.interrupt();
+        }
+      }
+      expiry.run();
+    }
+    
+    /**
+     * Stop watching, and clear the interrupt of watchdog, if it was the
+     * watchdog which interrupted the thread.
+     *
+     * @return true if the thread had run over its budget
+     */
+    boolean stop() {
+      if (state.compareAndSet(RUNNING, STOPPED)) {
+        timer.cancel(false);
+        return false;
+      }
+      synchronized (this) {
+        // wait the interrupt to be delivered, then clear it
+        if (interrupted) {
+          Thread.interrupted();
+        }
+      }
+      return true;
+    }
+  }
+  
+  private static final class Timer {
+    
+    private static final ScheduledThreadPoolExecutor INSTANCE = new ScheduledThreadPoolExecutor(1, r -> {
+      final Thread thread = new Thread(r, "es4j-subscriber-watchdog");
+      thread.setDaemon(true);
+      return thread;
+    });
+    
+    static {
+      INSTANCE.setRemoveOnCancelPolicy(true);
+    }
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.subscriber.support;
+
+import com.apehat.es4j.bus.EventHandler;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import com.apehat.es4j.bus.subscriber.SubscriberRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A subscriber repository for heavy subscribe and unsubscribe churn.
+ * <p>
+ * Subscribers are kept in a concurrent map keyed by handler, and writers of
+ * the same handler are serialized by a striped lock, so save and remove cost
+ * O(1) plus one membership update for each resolved event type it matches.
+ * <p>
+ * Readers of a resolved event type never block. Each resolved type keeps
+ * its own live membership and a versioned array snapshot, which is rebuilt
+ * lock-free by the first reader after a change. Lookups between changes
+ * return the same snapshot without allocating. A dispatch which is already
+ * in progress may still reach a subscriber removed concurrently. The first
+ * lookup of a type resolves it under all stripes, so it waits for the
+ * writers in progress.
+ * <p>
+ * A batch of subscribers is registered under all stripes, so it never
+ * interleaves with a save or remove, and the snapshot of each resolved type
+ * is replaced once with all of its new subscribers. So a reader of a type
+ * sees either none or all of the batch, while the types are published one
+ * after another before {@link #saveAll(Collection)} returns.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class ConcurrentSubscriberRepository implements SubscriberRepository {
+  
+  private static final int STRIPES = 64;
+  private static final Subscriber[] EMPTY = new Subscriber[0];
+  
+  private final ConcurrentMap<EventHandler, Subscriber> subscribers = new ConcurrentHashMap<>();
+  private final List<Route> resolvedRoutes = new CopyOnWriteArrayList<>();
+  private final Lock[] locks = new Lock[STRIPES];
+  private final ClassValue<Route> routes = new ClassValue<Route>() {
+    @Override
+    protected Route computeValue(Class<?> type) {
+      return new Route(type);
+    }
+  };
+  
+  public ConcurrentSubscriberRepository() {
+    for (int i = 0; i < STRIPES; i++) {
+      locks[i] = new ReentrantLock();
+    }
+  }
+  
+  @Override
+  public boolean save(Subscriber subscriber) {
+    final Lock lock = lockOf(subscriber.handler());
+    lock.lock();
+    try {
+      if (subscribers.putIfAbsent(subscriber.handler(), subscriber) != null) {
+        return false;
+      }
+      for (Route route : resolvedRoutes) {
+        if (subscriber.isSubscribed(route.type)) {
+          route.put(subscriber);
+        }
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Registers all subscribers whose handler is not yet registered. Readers
+   * are not blocked, a concurrent lookup of a type sees either none or all
+   * of its subscribers in the batch.
+   */
+  @Override
+  public void saveAll(Collection<? extends Subscriber> subscribers) {
+    lockAll();
+    try {
+      final List<Subscriber> saved = new ArrayList<>(subscribers.size());
+      for (Subscriber subscriber : subscribers) {
+        if (this.subscribers.putIfAbsent(subscriber.handler(), subscriber) == null) {
+          saved.add(subscriber);
+        }
+      }
+      for (Route route : resolvedRoutes) {
+        route.putAll(saved);
+      }
+    } finally {
+      unlockAll();
+    }
+  }
+  
+  @Override
+  public Subscriber remove(EventHandler handler) {
+    final Lock lock = lockOf(handler);
+    lock.lock();
+    try {
+      final Subscriber removed = subscribers.remove(handler);
+      if (removed != null) {
+        for (Route route : resolvedRoutes) {
+          if (removed.isSubscribed(route.type)) {
+            route.remove(removed);
+          }
+        }
+      }
+      return removed;
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public Set<Subscriber> subscriberWithType(Class<?> type) {
+    return Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(snapshotWithType(type))));
+  }
+  
+  @Override
+  public Subscriber[] snapshotWithType(Class<?> type) {
+    final Route route = routes.get(type);
+    if (!route.resolved) {
+      route.resolve();
+    }
+    return route.snapshot();
+  }
+  
+  private void lockAll() {
+    for (Lock lock : locks) {
+      lock.lock();
+    }
+  }
+  
+  private void unlockAll() {
+    for (int i = locks.length - 1; i >= 0; i--) {
+      locks[i].unlock();
+    }
+  }
+  
+  private Lock lockOf(EventHandler handler) {
+    final int hash = handler.hashCode();
+    return locks[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+  }
+  
+  private static final class Snapshot {
+    
+    private final long version;
+    private final Subscriber[] subscribers;
+    
+    Snapshot(long version, Subscriber[] subscribers) {
+      this.version = version;
+      this.subscribers = subscribers;
+    }
+  }
+  
+  private final class Route {
+    
+    private final Class<?> type;
+    private final ConcurrentMap<EventHandler, Subscriber> members = new ConcurrentHashMap<>();
+    private volatile boolean resolved;
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(-1, EMPTY));
+    
+    Route(Class<?> type) {
+      this.type = type;
+    }
+    
+    /*
+     * The writers are excluded while the registered subscribers are scanned,
+     * and every later change is applied to the route by its writer.
+     */
+    void resolve() {
+      lockAll();
+      try {
+        if (resolved) {
+          return;
+        }
+        for (Subscriber subscriber : subscribers.values()) {
+          if (subscriber.isSubscribed(type)) {
+            members.put(subscriber.handler(), subscriber);
+          }
+        }
+        version.incrementAndGet();
+        resolvedRoutes.add(this);
+        resolved = true;
+      } finally {
+        unlockAll();
+      }
+    }
+    
+    void put(Subscriber subscriber) {
+      members.put(subscriber.handler(), subscriber);
+      version.incrementAndGet();
+    }
+    
+    /*
+     * Called under all stripes. The members are added while the version is
+     * unchanged, so readers keep the current snapshot, then the snapshot with
+     * the whole batch is installed before the version is bumped.
+     */
+    void putAll(List<Subscriber> subscribers) {
+      final List<Subscriber> matched = new ArrayList<>();
+      for (Subscriber subscriber : subscribers) {
+        if (subscriber.isSubscribed(type)) {
+          matched.add(subscriber);
+        }
+      }
+      if (matched.isEmpty()) {
+        return;
+      }
+      final Subscriber[] current = snapshot();
+      final Subscriber[] published = Arrays.copyOf(current, current.length + matched.size());
+      for (int i = 0; i < matched.size(); i++) {
+        final Subscriber subscriber = matched.get(i);
+        published[current.length + i] = subscriber;
+        members.put(subscriber.handler(), subscriber);
+      }
+      final long next = version.get() + 1;
+      snapshot.set(new Snapshot(next, published));
+      version.set(next);
+    }
+    
+    void remove(Subscriber subscriber) {
+      members.remove(subscriber.handler(), subscriber);
+      version.incrementAndGet();
+    }
+    
+    /*
+     * The version is read before the members are copied, so a snapshot
+     * contains at least every change up to its version. An older snapshot
+     * never replaces a newer one, and a copy is dropped for a snapshot at
+     * least as new, since it may have been taken in the middle of a batch.
+     */
+    Subscriber[] snapshot() {
+      Snapshot current = snapshot.get();
+      final long expected = version.get();
+      if (current.version == expected) {
+        return current.subscribers;
+      }
+      final Snapshot rebuilt = new Snapshot(expected, members.values().toArray(EMPTY));
+      while (current.version < expected) {
+        if (snapshot.compareAndSet(current, rebuilt)) {
+          return rebuilt.subscribers;
+        }
+        current = snapshot.get();
+      }
+      return current.subscribers;
+    }
+  }
+}
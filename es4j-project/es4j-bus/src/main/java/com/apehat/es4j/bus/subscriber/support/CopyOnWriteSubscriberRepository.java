@@ -16,9 +16,11 @@
 
 package com.apehat.es4j.bus.subscriber.support;
 
+import com.apehat.es4j.bus.EventHandler;
 import com.apehat.es4j.bus.subscriber.Subscriber;
 import com.apehat.es4j.bus.subscriber.SubscriberRepository;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -32,8 +34,23 @@ public class CopyOnWriteSubscriberRepository implements SubscriberRepository {
   private final Set<Subscriber> subscribers = new CopyOnWriteArraySet<>();
   
   @Override
-  public void save(Subscriber subscriber) {
-    subscribers.add(subscriber);
+  public boolean save(Subscriber subscriber) {
+    return subscribers.add(subscriber);
+  }
+  
+  @Override
+  public void saveAll(Collection<? extends Subscriber> subscribers) {
+    this.subscribers.addAll(subscribers);
+  }
+  
+  @Override
+  public Subscriber remove(EventHandler handler) {
+    for (Subscriber subscriber : subscribers) {
+      if (subscriber.handler().equals(handler) && subscribers.remove(subscriber)) {
+        return subscriber;
+      }
+    }
+    return null;
   }
   
   @Override
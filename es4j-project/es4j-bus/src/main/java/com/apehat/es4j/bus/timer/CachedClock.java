@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.timer;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A coarse clock, which reads the system time once per tick, rather than
+ * on each call.
+ * <p>
+ * The time is cached in a volatile field, updated by a single daemon thread
+ * shared by all cached clocks, so the clock is behind the system time by at
+ * most its precision. The cached time never goes backwards. The clock keeps
+ * ticking until it is closed, and the clocks derived by
+ * {@link #withZone(ZoneId)} share its ticks.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class CachedClock extends Clock implements AutoCloseable {
+  
+  private final Ticker ticker;
+  private final ZoneId zone;
+  
+  public CachedClock() {
+    this(1, TimeUnit.MILLISECONDS);
+  }
+  
+  public CachedClock(long precision, TimeUnit unit) {
+    this(new Ticker(checkPrecision(unit.toNanos(precision))), ZoneOffset.UTC);
+  }
+  
+  private CachedClock(Ticker ticker, ZoneId zone) {
+    this.ticker = ticker;
+    this.zone = zone;
+  }
+  
+  private static long checkPrecision(long precisionNanos) {
+    if (precisionNanos <= 0) {
+      throw new IllegalArgumentException("Precision must be positive");
+    }
+    return precisionNanos;
+  }
+  
+  @Override
+  public long millis() {
+    return ticker.millis;
+  }
+  
+  @Override
+  public Instant instant() {
+    return Instant.ofEpochMilli(ticker.millis);
+  }
+  
+  @Override
+  public ZoneId getZone() {
+    return zone;
+  }
+  
+  @Override
+  public Clock withZone(ZoneId zone) {
+    Objects.requireNonNull(zone, "Zone must not be null");
+    return zone.equals(this.zone) ? this : new CachedClock(ticker, zone);
+  }
+  
+  /**
+   * Stop ticking, the clock is frozen afterwards.
+   */
+  @Override
+  public void close() {
+    ticker.future.cancel(false);
+  }
+  
+  @Override
+  public String toString() {
+    return "CachedClock[" + zone + "]";
+  }
+  
+  private static final class Ticker implements Runnable {
+    
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+      final Thread thread = new Thread(r, "es4j-cached-clock");
+      thread.setDaemon(true);
+      return thread;
+    });
+    
+    static {
+      TIMER.setRemoveOnCancelPolicy(true);
+    }
+    
+    private volatile long millis = System.currentTimeMillis();
+    private final ScheduledFuture<?> future;
+    
+    Ticker(long precisionNanos) {
+      this.future = TIMER.scheduleAtFixedRate(this, precisionNanos, precisionNanos, TimeUnit.NANOSECONDS);
+    }
+    
+    @Override
+    public void run() {
+      // only written by the timer thread
+      final long now = System.currentTimeMillis();
+      if (now > millis) {
+        millis = now;
+      }
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.timer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonic sequence, which orders the events and the subscriptions of
+ * the buses sharing it.
+ * <p>
+ * The numbers are unique and increasing, so unlike the time, a subscription
+ * and an event provisioned in the same millisecond are still ordered.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class Sequence {
+  
+  private static final Sequence SHARED = new Sequence();
+  
+  private final AtomicLong last = new AtomicLong();
+  
+  /**
+   * Returns the sequence shared by the whole JVM, for the services which
+   * are created apart but must order their events and subscriptions
+   * together. The services created without a sequence don't use it, each
+   * has its own.
+   *
+   * @return the shared sequence
+   */
+  public static Sequence shared() {
+    return SHARED;
+  }
+  
+  public long next() {
+    return last.incrementAndGet();
+  }
+  
+  public long current() {
+    return last.get();
+  }
+}
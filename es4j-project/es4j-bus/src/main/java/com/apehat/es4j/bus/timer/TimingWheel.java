@@ -0,0 +1,351 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A hashed timing wheel, which runs the scheduled tasks on a single worker
+ * thread with the precision of a tick.
+ * <p>
+ * Scheduling and cancelling a task only enqueue it, so both are O(1) and
+ * never block. The worker moves the scheduled tasks into the bucket of their
+ * deadline and unlinks the cancelled tasks from their bucket, then expires
+ * the bucket of current tick, on each tick. The tasks should be short, like
+ * handing over to a dispatcher, since they delay the following tasks.
+ * <p>
+ * The worker is started by the first scheduled task, and stopped by
+ * {@link #close()}.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class TimingWheel implements AutoCloseable {
+  
+  private static final Logger LOGGER = LoggerFactory.getLogger(TimingWheel.class);
+  private static final int TRANSFER_LIMIT = 100000;
+  
+  private static final int INIT = 0;
+  private static final int STARTED = 1;
+  private static final int STOPPED = 2;
+  
+  private final long tickNanos;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final Thread worker;
+  private final Queue<Entry> scheduled = new ConcurrentLinkedQueue<>();
+  private final Queue<Entry> cancelled = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger state = new AtomicInteger(INIT);
+  private final AtomicLong pending = new AtomicLong();
+  private final CountDownLatch started = new CountDownLatch(1);
+  private volatile long startTime;
+  
+  /* Accessed by worker only */
+  private long tick;
+  
+  public TimingWheel() {
+    this(10, TimeUnit.MILLISECONDS, 512, runnable -> {
+      final Thread thread = new Thread(runnable, "es4j-timing-wheel");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+  
+  /**
+   * @param tickDuration the duration of a tick
+   * @param unit the time unit of tick duration
+   * @param ticksPerWheel the number of buckets, which is rounded up to a
+   * power of 2
+   * @param threadFactory the factory of worker thread
+   */
+  public TimingWheel(long tickDuration, TimeUnit unit, int ticksPerWheel, ThreadFactory threadFactory) {
+    if (tickDuration <= 0) {
+      throw new IllegalArgumentException("Tick duration must be positive");
+    }
+    if (ticksPerWheel < 1 || ticksPerWheel > 1 << 30) {
+      throw new IllegalArgumentException("Ticks per wheel must be in [1, 2^30]");
+    }
+    Objects.requireNonNull(threadFactory, "Thread factory must not be null");
+    this.tickNanos = unit.toNanos(tickDuration);
+    int size = 1;
+    while (size < ticksPerWheel) {
+      size <<= 1;
+    }
+    this.wheel = new Bucket[size];
+    for (int i = 0; i < size; i++) {
+      wheel[i] = new Bucket();
+    }
+    this.mask = size - 1;
+    this.worker = threadFactory.newThread(this::work);
+  }
+  
+  /**
+   * Schedule the task to run after the specified delay.
+   *
+   * @param task the task to run
+   * @param delay the delay of task, a non positive delay runs the task on
+   * the next tick
+   * @param unit the time unit of delay
+   * @return the handle of task
+   * @throws RejectedExecutionException if the timing wheel was closed
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    Objects.requireNonNull(task, "Task must not be null");
+    start();
+    long deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
+    if (delay > 0 && deadline < 0) {
+      // overflow
+      deadline = Long.MAX_VALUE;
+    }
+    final Entry entry = new Entry(task, deadline);
+    pending.incrementAndGet();
+    scheduled.offer(entry);
+    return entry;
+  }
+  
+  /**
+   * Returns the number of tasks, which were neither expired nor cancelled.
+   *
+   * @return the number of pending tasks
+   */
+  public long pending() {
+    return pending.get();
+  }
+  
+  /**
+   * Stop the worker, the pending tasks will never run.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    if (state.getAndSet(STOPPED) == STARTED && Thread.currentThread() != worker) {
+      worker.interrupt();
+      worker.join();
+    }
+  }
+  
+  private void start() {
+    switch (state.get()) {
+      case INIT:
+        if (state.compareAndSet(INIT, STARTED)) {
+          worker.start();
+        }
+        break;
+      case STARTED:
+        break;
+      default:
+        throw new RejectedExecutionException("Timing wheel was closed");
+    }
+    boolean interrupted = false;
+    while (startTime == 0) {
+      try {
+        started.await();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  private void work() {
+    final long now = System.nanoTime();
+    // 0 means not started
+    startTime = now == 0 ? 1 : now;
+    started.countDown();
+    while (state.get() == STARTED) {
+      final long deadline = awaitNextTick();
+      if (deadline > 0) {
+        processCancelled();
+        transferScheduled();
+        wheel[(int) (tick & mask)].expire(deadline);
+        tick++;
+      }
+    }
+  }
+  
+  /*
+   * Returns the time elapsed since start, or -1 if stopped.
+   */
+  private long awaitNextTick() {
+    final long deadline = tickNanos * (tick + 1);
+    while (true) {
+      final long current = System.nanoTime() - startTime;
+      final long sleepNanos = deadline - current;
+      if (sleepNanos <= 0) {
+        return current;
+      }
+      try {
+        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+      } catch (InterruptedException e) {
+        if (state.get() == STOPPED) {
+          return -1;
+        }
+      }
+    }
+  }
+  
+  private void processCancelled() {
+    Entry entry;
+    while ((entry = cancelled.poll()) != null) {
+      if (entry.bucket != null) {
+        entry.bucket.remove(entry);
+      }
+    }
+  }
+  
+  private void transferScheduled() {
+    for (int i = 0; i < TRANSFER_LIMIT; i++) {
+      final Entry entry = scheduled.poll();
+      if (entry == null) {
+        return;
+      }
+      if (entry.state.get() == Entry.CANCELLED) {
+        continue;
+      }
+      final long ticks = entry.deadline / tickNanos;
+      entry.remainingRounds = (ticks - tick) / wheel.length;
+      // the deadline had passed, expire on current tick
+      wheel[(int) (Math.max(ticks, tick) & mask)].add(entry);
+    }
+  }
+  
+  private final class Entry implements Timeout {
+    
+    private static final int WAITING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+    
+    private final Runnable task;
+    private final long deadline;
+    private final AtomicInteger state = new AtomicInteger(WAITING);
+    
+    /* Accessed by worker only */
+    private long remainingRounds;
+    private Bucket bucket;
+    private Entry prev;
+    private Entry next;
+    
+    Entry(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+    
+    @Override
+    public boolean cancel() {
+      if (!state.compareAndSet(WAITING, CANCELLED)) {
+        return false;
+      }
+      pending.decrementAndGet();
+      cancelled.offer(this);
+      return true;
+    }
+    
+    @Override
+    public boolean isCancelled() {
+      return state.get() == CANCELLED;
+    }
+    
+    @Override
+    public boolean isExpired() {
+      return state.get() == EXPIRED;
+    }
+    
+    void expire() {
+      if (!state.compareAndSet(WAITING, EXPIRED)) {
+        return;
+      }
+      pending.decrementAndGet();
+      try {
+        task.run();
+      } catch (Throwable e) {
+        LOGGER.warn("Timing wheel task failure", e);
+      }
+    }
+  }
+  
+  /*
+   * A doubly linked list of entries, so that a cancelled entry is unlinked
+   * in O(1).
+   */
+  private static final class Bucket {
+    
+    private Entry head;
+    private Entry tail;
+    
+    void add(Entry entry) {
+      entry.bucket = this;
+      if (head == null) {
+        head = tail = entry;
+      } else {
+        tail.next = entry;
+        entry.prev = tail;
+        tail = entry;
+      }
+    }
+    
+    void expire(long deadline) {
+      Entry entry = head;
+      while (entry != null) {
+        final Entry next = entry.next;
+        if (entry.remainingRounds <= 0) {
+          remove(entry);
+          if (entry.deadline <= deadline) {
+            entry.expire();
+          } else {
+            throw new IllegalStateException("Entry is placed into wrong bucket");
+          }
+        } else if (entry.isCancelled()) {
+          remove(entry);
+        } else {
+          entry.remainingRounds--;
+        }
+        entry = next;
+      }
+    }
+    
+    void remove(Entry entry) {
+      if (entry.bucket != this) {
+        return;
+      }
+      if (entry.prev != null) {
+        entry.prev.next = entry.next;
+      } else {
+        head = entry.next;
+      }
+      if (entry.next != null) {
+        entry.next.prev = entry.prev;
+      } else {
+        tail = entry.prev;
+      }
+      entry.prev = null;
+      entry.next = null;
+      entry.bucket = null;
+    }
+  }
+}
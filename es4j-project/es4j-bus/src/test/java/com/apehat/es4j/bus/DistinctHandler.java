@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus;
+
+import com.apehat.es4j.bus.event.Event;
+import java.util.function.Consumer;
+
+/**
+ * An event handler with identity equality, so each instance registers as
+ * its own subscriber even when it wraps a non-capturing lambda.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class DistinctHandler implements EventHandler {
+  
+  private final Consumer<Event> delegate;
+  
+  public DistinctHandler(Consumer<Event> delegate) {
+    this.delegate = delegate;
+  }
+  
+  public DistinctHandler() {
+    this(event -> {
+    });
+  }
+  
+  @Override
+  public void onEvent(Event event) {
+    delegate.accept(event);
+  }
+}
@@ -16,16 +16,39 @@
 
 package com.apehat.es4j.bus;
 
+import com.apehat.es4j.bus.clone.CloningPolicy;
+import com.apehat.es4j.bus.clone.CloningStrategy;
+import com.apehat.es4j.bus.disptach.AsyncDispatcher;
+import com.apehat.es4j.bus.event.EnvelopePool;
+import com.apehat.es4j.bus.event.EventIdentityService;
+import com.apehat.es4j.bus.event.PrototypeAccess;
+import com.apehat.es4j.bus.subscriber.DeliveryPolicy;
+import com.apehat.es4j.bus.subscriber.RetryPolicy;
+import com.apehat.es4j.bus.timer.Sequence;
+import com.apehat.es4j.bus.timer.Timeout;
+import com.apehat.es4j.bus.timer.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.Test;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 import static org.testng.AssertJUnit.assertFalse;
 
 /**
@@ -70,7 +93,7 @@ public class EventBusTest {
     final boolean[] handled = {false};
     bus.subscribe(EventSubmitted.class, event -> handled[0] = true);
     
-    Thread.sleep(1000);
+    assertTrue(bus.awaitQuiescence(1, TimeUnit.SECONDS));
     assertFalse(handled[0]);
   }
   
@@ -80,10 +103,343 @@ public class EventBusTest {
     final boolean[] handled = {false};
     bus.subscribe(EventSubmitted.class, event -> handled[0] = true);
     bus.submit(SOURCE, new EventSubmitted());
-    Thread.sleep(50);
+    assertTrue(bus.awaitQuiescence(1, TimeUnit.SECONDS));
     assertTrue(handled[0]);
   }
   
+  @Test
+  public void testSubmitTrackedReportsFailures() throws Exception {
+    final EventBus bus = provisionEventBus();
+    final IllegalStateException failure = new IllegalStateException("Handle failure");
+    final EventHandler failed = event -> {
+      throw failure;
+    };
+    bus.subscribe(EventSubmitted.class, failed);
+    bus.subscribe(EventSubmitted.class, event -> LOGGER.debug("handled {}", event));
+    
+    final DeliveryReport report = bus.submitTracked(SOURCE, new EventSubmitted())
+            .toCompletableFuture().get(1, TimeUnit.SECONDS);
+    assertEquals(report.delivered(), 1);
+    assertEquals(report.failures().size(), 1);
+    assertSame(report.failures().get(failed), failure);
+    assertFalse(report.isSuccessful());
+  }
+  
+  @Test
+  public void testSubmitTrackedWithoutSubscriber() {
+    final DeliveryReport report = provisionEventBus().submitTracked(SOURCE, new EventSubmitted())
+            .toCompletableFuture().getNow(null);
+    assertEquals(report.delivered(), 0);
+    assertTrue(report.isSuccessful());
+  }
+  
+  @Test
+  public void testAwaitQuiescenceIncludesNestedSubmit() throws Exception {
+    final EventBus bus = provisionEventBus();
+    final AtomicInteger handleCount = new AtomicInteger();
+    bus.subscribe(EventSubmitted.class, event -> bus.submit(SOURCE, new EventPublished()));
+    bus.subscribe(EventPublished.class, event -> {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      handleCount.incrementAndGet();
+    });
+    bus.submit(SOURCE, new EventSubmitted());
+    assertTrue(bus.awaitQuiescence(1, TimeUnit.SECONDS));
+    assertEquals(handleCount.get(), 1);
+  }
+  
+  @Test
+  public void testSubmitAfterDelay() throws Exception {
+    final EventBus bus = provisionEventBus();
+    final CountDownLatch handled = new CountDownLatch(1);
+    bus.subscribe(EventSubmitted.class, event -> handled.countDown());
+    final long start = System.nanoTime();
+    bus.submitAfter(Duration.ofMillis(50), SOURCE, new EventSubmitted());
+    assertTrue(handled.await(1, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+  }
+  
+  @Test
+  public void testDefaultBusesShareTimingWheel() throws Exception {
+    provisionEventBus().submitAfter(Duration.ofMillis(1), SOURCE, new EventSubmitted());
+    final long workers = timingWheelWorkers();
+    final CountDownLatch handled = new CountDownLatch(10);
+    for (int i = 0; i < 10; i++) {
+      final EventBus bus = provisionEventBus();
+      bus.subscribe(EventSubmitted.class, event -> handled.countDown());
+      bus.submitAfter(Duration.ofMillis(1), SOURCE, new EventSubmitted());
+    }
+    assertTrue(handled.await(1, TimeUnit.SECONDS));
+    assertEquals(timingWheelWorkers(), workers);
+  }
+  
+  @Test
+  public void testCancelSubmitAt() throws Exception {
+    final EventBus bus = provisionEventBus();
+    final AtomicInteger handleCount = new AtomicInteger();
+    bus.subscribe(EventSubmitted.class, event -> handleCount.incrementAndGet());
+    final Timeout timeout = bus.submitAt(Instant.now().plusMillis(20), SOURCE, new EventSubmitted());
+    assertTrue(timeout.cancel());
+    Thread.sleep(50);
+    assertTrue(bus.awaitQuiescence(1, TimeUnit.SECONDS));
+    assertEquals(handleCount.get(), 0);
+  }
+  
+  @Test
+  public void testSubmitAfterCopiesPrototypeOnCall() throws Exception {
+    final EventBus bus = new EventBus(new AsyncDispatcher(Executors.newFixedThreadPool(4)),
+            new TimingWheel(), new EventIdentityService(new CloningPolicy(CloningStrategy.SERIALIZED)));
+    final AtomicInteger seen = new AtomicInteger();
+    final CountDownLatch handled = new CountDownLatch(1);
+    bus.subscribe(AtomicInteger.class, event -> {
+      seen.set(((AtomicInteger) event.prototype()).get());
+      handled.countDown();
+    });
+    final AtomicInteger event = new AtomicInteger(1);
+    bus.submitAfter(Duration.ofMillis(20), SOURCE, event);
+    event.set(2);
+    assertTrue(handled.await(1, TimeUnit.SECONDS));
+    assertEquals(seen.get(), 1);
+  }
+  
+  @Test
+  public void testSubmitAtUsesClockOfBus() throws Exception {
+    final Clock hourBehind = Clock.offset(Clock.systemUTC(), Duration.ofHours(-1));
+    final EventBus bus = new EventBus(new AsyncDispatcher(Executors.newFixedThreadPool(4)), new TimingWheel(),
+            new EventIdentityService(PrototypeAccess.COPY, DomainRegistry.cloningService(),
+                    hourBehind, new Sequence()));
+    final CountDownLatch handled = new CountDownLatch(1);
+    bus.subscribe(EventSubmitted.class, event -> handled.countDown());
+    final Timeout timeout = bus.submitAt(Instant.now(), SOURCE, new EventSubmitted());
+    assertFalse(handled.await(100, TimeUnit.MILLISECONDS));
+    assertTrue(timeout.cancel());
+  }
+  
+  @Test
+  public void testDeadLetterStampedByClockOfBus() throws Exception {
+    final Clock hourBehind = Clock.offset(Clock.systemUTC(), Duration.ofHours(-1));
+    final EventBus bus = new EventBus(new AsyncDispatcher(Executors.newFixedThreadPool(4)), new TimingWheel(),
+            new EventIdentityService(PrototypeAccess.COPY, DomainRegistry.cloningService(),
+                    hourBehind, new Sequence()));
+    bus.subscribe(EventSubmitted.class, event -> {
+      throw new IllegalStateException("Handle failure");
+    }, DeliveryPolicy.retrying(new RetryPolicy(1, 1, 1, 1, TimeUnit.MILLISECONDS)));
+    final long before = hourBehind.millis();
+    bus.submit(SOURCE, new EventSubmitted());
+    assertTrue(bus.awaitQuiescence(1, TimeUnit.SECONDS));
+    
+    final List<DeadLetter> letters = bus.deadLetters().snapshot();
+    assertEquals(letters.size(), 1);
+    assertTrue(letters.get(0).deadOn() >= before);
+    assertTrue(letters.get(0).deadOn() <= hourBehind.millis());
+  }
+  
+  @Test
+  public void testDefaultEventServicesHaveOwnSequence() {
+    final Sequence sequence = new EventIdentityService().sequence();
+    assertNotSame(new EventIdentityService().sequence(), sequence);
+    assertNotSame(Sequence.shared(), sequence);
+  }
+  
+  @Test
+  public void testRetryUntilHandled() throws Exception {
+    final EventBus bus = provisionEventBus();
+    final AtomicInteger attempts = new AtomicInteger();
+    bus.subscribe(EventSubmitted.class, event -> {
+      if (attempts.incrementAndGet() < 3) {
+        throw new IllegalStateException("Handle failure");
+      }
+    }, DeliveryPolicy.retrying(new RetryPolicy(3, 10, 2, 100, TimeUnit.MILLISECONDS)));
+    
+    final DeliveryReport report = bus.submitTracked(SOURCE, new EventSubmitted())
+            .toCompletableFuture().get(1, TimeUnit.SECONDS);
+    assertTrue(report.isSuccessful());
+    assertEquals(attempts.get(), 3);
+    assertEquals(bus.retried(), 2);
+    assertEquals(bus.pendingRetries(), 0);
+    assertEquals(bus.deadLetters().size(), 0);
+  }
+  
+  @Test
+  public void testDeadLetterAfterLastRetryThenReplay() throws Exception {
+    final EventBus bus = provisionEventBus();
+    final AtomicInteger attempts = new AtomicInteger();
+    final boolean[] failing = {true};
+    final EventHandler handler = event -> {
+      attempts.incrementAndGet();
+      if (failing[0]) {
+        throw new IllegalStateException("Handle failure");
+      }
+    };
+    bus.subscribe(EventSubmitted.class, handler,
+            DeliveryPolicy.retrying(new RetryPolicy(2, 1, 1, 1, TimeUnit.MILLISECONDS)));
+    bus.submit(SOURCE, new EventSubmitted());
+    assertTrue(bus.awaitQuiescence(1, TimeUnit.SECONDS));
+    assertEquals(attempts.get(), 3);
+    
+    final List<DeadLetter> letters = bus.deadLetters().snapshot();
+    assertEquals(letters.size(), 1);
+    assertSame(letters.get(0).handler(), handler);
+    assertEquals(letters.get(0).attempts(), 3);
+    
+    failing[0] = false;
+    assertEquals(bus.replayDeadLetters(), 1);
+    assertTrue(bus.awaitQuiescence(1, TimeUnit.SECONDS));
+    assertEquals(attempts.get(), 4);
+    assertEquals(bus.deadLetters().size(), 0);
+    assertEquals(bus.deadLetters().received(), 1);
+  }
+  
+  @Test
+  public void testReplayDropsUnsubscribedHandler() throws Exception {
+    final EventBus bus = new EventBus(new AsyncDispatcher(Executors.newFixedThreadPool(4)), new TimingWheel(),
+            new EventIdentityService(), Executors.newCachedThreadPool(), 1);
+    final AtomicInteger attempts = new AtomicInteger();
+    final EventHandler handler = event -> {
+      attempts.incrementAndGet();
+      throw new IllegalStateException("Handle failure");
+    };
+    bus.subscribe(EventSubmitted.class, handler,
+            DeliveryPolicy.retrying(new RetryPolicy(1, 1, 1, 1, TimeUnit.MILLISECONDS)));
+    for (int i = 0; i < 2; i++) {
+      bus.submit(SOURCE, new EventSubmitted());
+      assertTrue(bus.awaitQuiescence(1, TimeUnit.SECONDS));
+    }
+    assertEquals(bus.deadLetters().size(), 1);
+    assertEquals(bus.deadLetters().dropped(), 1);
+    
+    assertTrue(bus.unsubscribe(handler));
+    assertEquals(bus.replayDeadLetters(), 0);
+    assertTrue(bus.awaitQuiescence(1, TimeUnit.SECONDS));
+    assertEquals(attempts.get(), 4);
+  }
+  
+  @Test
+  public void testSubscribeAllThenPublish() {
+    final EventBus bus = provisionEventBus();
+    final AtomicInteger handleCount = new AtomicInteger();
+    final SubscriptionBatch batch = new SubscriptionBatch();
+    for (int i = 0; i < 100; i++) {
+      batch.subscribe(EventPublished.class, event -> handleCount.incrementAndGet());
+    }
+    batch.subscribe(EventSubmitted.class, event -> handleCount.addAndGet(1000));
+    bus.subscribeAll(batch);
+    
+    bus.publish(SOURCE, new EventPublished());
+    assertEquals(handleCount.get(), 100);
+  }
+  
+  @Test
+  public void testUnsubscribeThenPublish() {
+    final EventBus bus = provisionEventBus();
+    final AtomicInteger handleCount = new AtomicInteger();
+    final EventHandler handler = event -> handleCount.incrementAndGet();
+    bus.subscribe(EventPublished.class, handler);
+    bus.publish(SOURCE, new EventPublished());
+    
+    assertTrue(bus.unsubscribe(handler));
+    bus.publish(SOURCE, new EventPublished());
+    assertEquals(handleCount.get(), 1);
+  }
+  
+  @Test
+  public void testSubscribersShareSinglePrototype() {
+    final EventBus bus = new EventBus(new AsyncDispatcher(Executors.newFixedThreadPool(4)),
+            new TimingWheel(), new EventIdentityService(PrototypeAccess.SHARED));
+    final List<Object> prototypes = new CopyOnWriteArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      bus.subscribe(AtomicInteger.class, event -> prototypes.add(event.prototype()));
+    }
+    
+    bus.publish(SOURCE, new AtomicInteger());
+    assertEquals(prototypes.size(), 3);
+    assertSame(prototypes.get(1), prototypes.get(0));
+    assertSame(prototypes.get(2), prototypes.get(0));
+  }
+  
+  @Test
+  public void testSubscribersCopyPrototypeInCopyMode() {
+    final EventBus bus = new EventBus(new AsyncDispatcher(Executors.newFixedThreadPool(4)),
+            new TimingWheel(), new EventIdentityService(
+            PrototypeAccess.COPY, new CloningPolicy(CloningStrategy.SERIALIZED)));
+    final List<Object> prototypes = new CopyOnWriteArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      bus.subscribe(AtomicInteger.class, event -> prototypes.add(event.prototype()));
+    }
+    
+    bus.publish(SOURCE, new AtomicInteger());
+    assertEquals(prototypes.size(), 3);
+    assertNotSame(prototypes.get(1), prototypes.get(0));
+    assertNotSame(prototypes.get(2), prototypes.get(0));
+    assertNotSame(prototypes.get(2), prototypes.get(1));
+  }
+  
+  @Test
+  public void testCloningPolicyOfBus() {
+    final EventBus bus = new EventBus(new AsyncDispatcher(Executors.newFixedThreadPool(4)),
+            new TimingWheel(), new EventIdentityService(new CloningPolicy(CloningStrategy.NONE)));
+    final List<Object> prototypes = new CopyOnWriteArrayList<>();
+    bus.subscribe(AtomicInteger.class, event -> prototypes.add(event.prototype()));
+    
+    final AtomicInteger event = new AtomicInteger();
+    bus.publish(SOURCE, event);
+    assertEquals(prototypes.size(), 1);
+    assertSame(prototypes.get(0), event);
+  }
+  
+  @Test
+  public void testSubmitRecyclesPooledEvents() throws Exception {
+    final EnvelopePool pool = new EnvelopePool(16, true);
+    final EventBus bus = new EventBus(new AsyncDispatcher(Executors.newFixedThreadPool(4)), new TimingWheel(),
+            new EventIdentityService(PrototypeAccess.COPY, DomainRegistry.cloningService(),
+                    Clock.systemUTC(), new Sequence(), pool));
+    final AtomicInteger handleCount = new AtomicInteger();
+    bus.subscribe(EventSubmitted.class, event -> handleCount.incrementAndGet());
+    bus.subscribe(EventSubmitted.class, event -> handleCount.incrementAndGet());
+    
+    for (int i = 0; i < 100; i++) {
+      bus.submit(SOURCE, new EventSubmitted());
+      assertTrue(bus.awaitQuiescence(1, TimeUnit.SECONDS));
+      // the dispatch task releases its reference after the subscribers reported
+      awaitRecycled(pool, i + 1);
+    }
+    assertEquals(handleCount.get(), 200);
+    assertEquals(pool.created(), 1);
+    assertEquals(pool.recycled(), 100);
+    assertEquals(pool.leaks(), 0);
+  }
+  
+  @Test
+  public void testAbortedSubmitRecyclesPooledEvent() {
+    final EnvelopePool pool = new EnvelopePool(16, true);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.shutdown();
+    final EventBus bus = new EventBus(new AsyncDispatcher(executor), new TimingWheel(),
+            new EventIdentityService(PrototypeAccess.COPY, DomainRegistry.cloningService(),
+                    Clock.systemUTC(), new Sequence(), pool));
+    bus.subscribe(EventSubmitted.class, event -> {
+    });
+    
+    try {
+      bus.submit(SOURCE, new EventSubmitted());
+      fail("Submit should be rejected");
+    } catch (RejectedExecutionException expected) {
+      // the dispatch was aborted
+    }
+    assertEquals(pool.recycled(), 1);
+    assertEquals(pool.size(), 1);
+  }
+  
+  private static void awaitRecycled(EnvelopePool pool, long recycled) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    while (pool.recycled() < recycled && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+  }
+  
   @Test
   public void testMultipleRegisterWithSameHandlerThenPublish() {
     AtomicInteger handleCount = new AtomicInteger();
@@ -99,7 +455,7 @@ public class EventBusTest {
     final EventBus bus = provisionEventBus();
     registerSameHandler(handleCount, bus, "submit");
     bus.submit(SOURCE, new EventSubmitted());
-    Thread.sleep(100);
+    assertTrue(bus.awaitQuiescence(1, TimeUnit.SECONDS));
     assertEquals(handleCount.get(), 1);
   }
   
@@ -117,6 +473,12 @@ public class EventBusTest {
     }
   }
   
+  private static long timingWheelWorkers() {
+    return Thread.getAllStackTraces().keySet().stream()
+            .filter(thread -> thread.getName().equals("es4j-timing-wheel"))
+            .count();
+  }
+  
   private EventBus provisionEventBus() {
     return new EventBus(Executors.newFixedThreadPool(4));
   }
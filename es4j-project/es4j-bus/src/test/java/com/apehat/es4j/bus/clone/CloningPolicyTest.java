@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.clone;
+
+import org.testng.annotations.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class CloningPolicyTest {
+  
+  @Test
+  public void testOverrideBySuperType() {
+    final Map<Class<?>, CloningStrategy> overrides = new LinkedHashMap<>();
+    overrides.put(Shared.class, CloningStrategy.NONE);
+    overrides.put(Serializable.class, CloningStrategy.SERIALIZED);
+    final CloningPolicy policy = new CloningPolicy(CloningStrategy.GENERATED, overrides);
+    
+    assertEquals(policy.strategyOf(SharedOrder.class), CloningStrategy.NONE);
+    assertEquals(policy.strategyOf(Order.class), CloningStrategy.SERIALIZED);
+    assertEquals(policy.strategyOf(Shared.class), CloningStrategy.NONE);
+    assertEquals(policy.strategyOf(Object.class), CloningStrategy.GENERATED);
+  }
+  
+  @Test
+  public void testCloneByStrategy() {
+    final CloningPolicy policy = new CloningPolicy(CloningStrategy.GENERATED,
+            Collections.singletonMap(SharedOrder.class, CloningStrategy.NONE));
+    final SharedOrder shared = new SharedOrder();
+    assertSame(policy.deepClone(shared), shared);
+    
+    final Order order = new Order();
+    order.lines.add(new ArrayList<>());
+    final Order copy = policy.deepClone(order);
+    assertNotSame(copy, order);
+    assertNotSame(copy.lines.get(0), order.lines.get(0));
+  }
+  
+  @Test
+  public void testShallow() {
+    final CloningPolicy policy = new CloningPolicy(CloningStrategy.SHALLOW);
+    final Order order = new Order();
+    final Order copy = policy.deepClone(order);
+    assertNotSame(copy, order);
+    assertSame(copy.lines, order.lines);
+  }
+  
+  @Test
+  public void testSerialized() {
+    final CloningPolicy policy = new CloningPolicy(CloningStrategy.SERIALIZED);
+    final Order order = new Order();
+    order.lines.add(new ArrayList<>());
+    final Order copy = policy.deepClone(order);
+    assertNotSame(copy, order);
+    assertEquals(copy.lines.size(), 1);
+    assertNotSame(copy.lines.get(0), order.lines.get(0));
+  }
+  
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testSerializedRequiresSerializable() {
+    new CloningPolicy(CloningStrategy.SERIALIZED).deepClone(new Object() {
+    });
+  }
+  
+  private static class Order implements Serializable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final ArrayList<List<String>> lines = new ArrayList<>();
+  }
+  
+  private interface Shared {
+  }
+  
+  private static final class SharedOrder extends Order implements Shared {
+    
+    private static final long serialVersionUID = 1L;
+  }
+}
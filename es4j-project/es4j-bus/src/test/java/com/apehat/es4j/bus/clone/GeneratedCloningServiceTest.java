@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.clone;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class GeneratedCloningServiceTest {
+  
+  private GeneratedCloningService cloningService;
+  
+  @BeforeMethod
+  public void setUp() {
+    cloningService = new GeneratedCloningService();
+  }
+  
+  @Test
+  public void testDeepCloneFields() {
+    final Order order = new Order("order-1", 3, 9.5, new int[]{1, 2});
+    order.lines.add(new Line("apple", 2));
+    order.attributes.put("channel", new Line("web", 1));
+    
+    final Order copy = cloningService.deepClone(order);
+    assertNotSame(copy, order);
+    assertSame(((Item) copy).id, ((Item) order).id);
+    assertEquals(copy.quantity, 3);
+    assertEquals(copy.price, 9.5);
+    assertNotSame(copy.codes, order.codes);
+    assertTrue(Arrays.equals(copy.codes, order.codes));
+    assertNotSame(copy.lines, order.lines);
+    assertEquals(copy.lines.size(), 1);
+    assertNotSame(copy.lines.get(0), order.lines.get(0));
+    assertEquals(copy.lines.get(0).name, "apple");
+    assertEquals(copy.lines.get(0).count, 2);
+    assertNotSame(copy.attributes.get("channel"), order.attributes.get("channel"));
+    assertEquals(copy.attributes.get("channel").name, "web");
+  }
+  
+  @Test
+  public void testPreserveSharedAndCircularReferences() {
+    final Node node = new Node();
+    node.self = node;
+    node.left = new ArrayList<>();
+    node.right = node.left;
+    
+    final Node copy = cloningService.deepClone(node);
+    assertNotSame(copy, node);
+    assertSame(copy.self, copy);
+    assertNotSame(copy.left, node.left);
+    assertSame(copy.right, copy.left);
+  }
+  
+  @Test
+  public void testCopySortedCollectionWithComparator() {
+    final TreeSet<String> names = new TreeSet<>(Comparator.reverseOrder());
+    names.addAll(Arrays.asList("a", "b", "c"));
+    
+    final TreeSet<String> copy = cloningService.deepClone(names);
+    assertNotSame(copy, names);
+    assertSame(copy.comparator(), names.comparator());
+    assertEquals(copy.first(), "c");
+  }
+  
+  @Test
+  public void testShareImmutable() {
+    final String value = "immutable";
+    assertSame(cloningService.deepClone(value), value);
+    assertNull(cloningService.deepClone(null));
+  }
+  
+  @Test
+  public void testGenerateOncePerClass() {
+    cloningService.deepClone(new Line("apple", 1));
+    final int generated = cloningService.generated();
+    cloningService.deepClone(new Line("pear", 2));
+    assertEquals(cloningService.generated(), generated);
+  }
+  
+  private static class Item {
+    
+    private final String id;
+    
+    Item(String id) {
+      this.id = id;
+    }
+  }
+  
+  private static final class Order extends Item {
+    
+    private final int quantity;
+    private final double price;
+    private final int[] codes;
+    private final List<Line> lines = new ArrayList<>();
+    private final Map<String, Line> attributes = new HashMap<>();
+    
+    Order(String id, int quantity, double price, int[] codes) {
+      super(id);
+      this.quantity = quantity;
+      this.price = price;
+      this.codes = codes;
+    }
+  }
+  
+  private static final class Line {
+    
+    private String name;
+    private int count;
+    
+    Line(String name, int count) {
+      this.name = name;
+      this.count = count;
+    }
+  }
+  
+  private static final class Node {
+    
+    private Node self;
+    private List<Object> left;
+    private List<Object> right;
+  }
+}
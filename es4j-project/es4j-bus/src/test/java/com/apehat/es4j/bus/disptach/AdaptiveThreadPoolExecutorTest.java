@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class AdaptiveThreadPoolExecutorTest {
+  
+  private static final int MIN = 1;
+  private static final int MAX = 4;
+  
+  private AdaptiveThreadPoolExecutor pool;
+  
+  @BeforeMethod
+  public void setUp() {
+    // the control loop is driven by test
+    pool = new AdaptiveThreadPoolExecutor(MIN, MAX, 1, TimeUnit.HOURS);
+  }
+  
+  @AfterMethod
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+  
+  @Test
+  public void testGrowOnBacklogThenShrinkWhenIdle() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(20);
+    for (int i = 0; i < 20; i++) {
+      pool.execute(() -> {
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        done.countDown();
+      });
+    }
+    for (int i = 0; i < 20 && pool.getCorePoolSize() < MAX; i++) {
+      pool.tick();
+    }
+    assertEquals(pool.getCorePoolSize(), MAX);
+    
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    // workers are still active for a moment after counting down
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (pool.getActiveCount() > 0 && System.nanoTime() < deadline) {
+      Thread.yield();
+    }
+    for (int i = 0; i < 50 && pool.getCorePoolSize() > MIN; i++) {
+      pool.tick();
+    }
+    assertEquals(pool.getCorePoolSize(), MIN);
+    
+    final List<AdaptiveThreadPoolExecutor.Decision> decisions = pool.decisions();
+    assertFalse(decisions.isEmpty());
+    assertEquals(decisions.get(0).from(), MIN);
+    assertEquals(decisions.get(0).reason(), "tasks queue up");
+    assertEquals(decisions.get(decisions.size() - 1).to(), MIN);
+  }
+  
+  @Test
+  public void testCooldownBetweenDecisions() {
+    final CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < 20; i++) {
+      pool.execute(() -> {
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+    pool.tick();
+    assertEquals(pool.getCorePoolSize(), 2);
+    pool.tick();
+    pool.tick();
+    assertEquals(pool.getCorePoolSize(), 2);
+    pool.tick();
+    assertEquals(pool.getCorePoolSize(), 3);
+    release.countDown();
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.apehat.es4j.bus.disptach.DispatcherFixture.SUBSCRIBERS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class AsyncDispatcherTest {
+  
+  private DispatcherFixture fixture;
+  
+  @BeforeMethod
+  public void setUp() {
+    fixture = new DispatcherFixture(AsyncDispatcherTest.class, 4);
+  }
+  
+  @AfterMethod
+  public void tearDown() {
+    fixture.close();
+  }
+  
+  @Test
+  public void testFanOutPerSubscriber() throws Exception {
+    final Set<String> threads = ConcurrentHashMap.newKeySet();
+    final CountDownLatch allStarted = new CountDownLatch(4);
+    final Subscriber[] subscribers = fixture.subscribe(String.class, SUBSCRIBERS, e -> {
+      threads.add(Thread.currentThread().getName());
+      allStarted.countDown();
+      try {
+        allStarted.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    new AsyncDispatcher(fixture.pool(), 1).submit(fixture.provisionEvent("event"), subscribers)
+            .get(5, TimeUnit.SECONDS);
+    assertEquals(threads.size(), 4);
+  }
+  
+  @Test
+  public void testJoinAfterAllChunksCompleted() throws Exception {
+    final AtomicInteger handled = new AtomicInteger();
+    final Subscriber[] subscribers = fixture.subscribe(String.class, SUBSCRIBERS, e -> {
+      if (handled.incrementAndGet() % 2 == 0) {
+        throw new IllegalStateException("Failure should not break the join");
+      }
+    });
+    new AsyncDispatcher(fixture.pool(), 3).submit(fixture.provisionEvent("event"), subscribers)
+            .get(5, TimeUnit.SECONDS);
+    assertEquals(handled.get(), SUBSCRIBERS);
+    assertTrue(new AsyncDispatcher(fixture.pool()).submit(fixture.provisionEvent("event"), new Subscriber[0])
+            .isDone());
+  }
+  
+  @Test
+  public void testRejectedChunkFailsJoin() throws Exception {
+    final AtomicInteger handled = new AtomicInteger();
+    final Subscriber[] subscribers = fixture.subscribe(String.class, 2, e -> {
+      fixture.block();
+      handled.incrementAndGet();
+    });
+    final ExecutorService single = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+    try {
+      final CompletableFuture<Void> completion =
+              new AsyncDispatcher(single, 1).submit(fixture.provisionEvent("event"), subscribers);
+      assertTrue(completion.isCompletedExceptionally());
+      
+      // the first chunk was submitted before the rejection, so it still runs
+      fixture.unblock();
+      single.shutdown();
+      assertTrue(single.awaitTermination(5, TimeUnit.SECONDS));
+      assertEquals(handled.get(), 1);
+    } finally {
+      single.shutdownNow();
+    }
+  }
+}
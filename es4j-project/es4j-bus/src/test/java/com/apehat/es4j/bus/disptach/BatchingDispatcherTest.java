@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.BatchEventHandler;
+import com.apehat.es4j.bus.DeliveryReport;
+import com.apehat.es4j.bus.EventBus;
+import com.apehat.es4j.bus.event.Event;
+import com.apehat.es4j.bus.subscriber.DeliveryPolicy;
+import com.apehat.es4j.bus.subscriber.RetryPolicy;
+import com.apehat.es4j.bus.timer.TimingWheel;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class BatchingDispatcherTest {
+  
+  private static final String SOURCE = BatchingDispatcherTest.class.getName();
+  
+  private DispatcherFixture fixture;
+  private TimingWheel timingWheel;
+  private List<List<Event>> batches;
+  
+  @BeforeMethod
+  public void setUp() {
+    fixture = new DispatcherFixture(BatchingDispatcherTest.class, 4);
+    timingWheel = new TimingWheel();
+    batches = new CopyOnWriteArrayList<>();
+  }
+  
+  @AfterMethod
+  public void tearDown() throws Exception {
+    fixture.close();
+    timingWheel.close();
+  }
+  
+  @Test
+  public void testDeliverWhenBatchIsFull() throws Exception {
+    final BatchingDispatcher dispatcher =
+            new BatchingDispatcher(fixture.pool(), timingWheel, 10, 1, TimeUnit.HOURS);
+    final EventBus bus = new EventBus(dispatcher, timingWheel);
+    bus.subscribe(String.class, (BatchEventHandler) batches::add);
+    for (int i = 0; i < 25; i++) {
+      bus.submit(SOURCE, "event");
+    }
+    // the last events linger until flushed
+    assertFalse(bus.awaitQuiescence(100, TimeUnit.MILLISECONDS));
+    assertEquals(batches.size(), 2);
+    assertEquals(batches.get(0).size(), 10);
+    assertEquals(batches.get(1).size(), 10);
+    
+    dispatcher.flush();
+    assertTrue(bus.awaitQuiescence(5, TimeUnit.SECONDS));
+    assertEquals(batches.size(), 3);
+    assertEquals(batches.get(2).size(), 5);
+    assertEquals(dispatcher.drained(), 3);
+  }
+  
+  @Test
+  public void testFlushWhileDraining() throws Exception {
+    final BatchingDispatcher dispatcher =
+            new BatchingDispatcher(fixture.pool(), timingWheel, 2, 1, TimeUnit.HOURS);
+    final EventBus bus = new EventBus(dispatcher, timingWheel);
+    bus.subscribe(String.class, (BatchEventHandler) events -> {
+      batches.add(events);
+      if (batches.size() == 1) {
+        fixture.block();
+      }
+    });
+    for (int i = 0; i < 3; i++) {
+      bus.submit(SOURCE, "event");
+    }
+    fixture.awaitBlocked();
+    dispatcher.flush();
+    fixture.unblock();
+    assertTrue(bus.awaitQuiescence(5, TimeUnit.SECONDS));
+    assertEquals(batches.size(), 2);
+    assertEquals(batches.get(1).size(), 1);
+  }
+  
+  @Test
+  public void testDeliverWhenLingerExpired() throws Exception {
+    final EventBus bus = bus(10, 50, TimeUnit.MILLISECONDS);
+    bus.subscribe(String.class, (BatchEventHandler) batches::add);
+    for (int i = 0; i < 3; i++) {
+      bus.submit(SOURCE, "event");
+    }
+    assertEquals(batches.size(), 0);
+    assertTrue(bus.awaitQuiescence(5, TimeUnit.SECONDS));
+    assertEquals(batches.size(), 1);
+    assertEquals(batches.get(0).size(), 3);
+  }
+  
+  @Test
+  public void testEventsAckedAfterBatchHandled() throws Exception {
+    final EventBus bus = bus(2, 1, TimeUnit.HOURS);
+    bus.subscribe(String.class, (BatchEventHandler) events -> fixture.block());
+    final CompletableFuture<DeliveryReport> first =
+            bus.submitTracked(SOURCE, "event").toCompletableFuture();
+    final CompletableFuture<DeliveryReport> second =
+            bus.submitTracked(SOURCE, "event").toCompletableFuture();
+    fixture.awaitBlocked();
+    assertFalse(first.isDone());
+    assertFalse(second.isDone());
+    
+    fixture.unblock();
+    assertEquals(first.get(5, TimeUnit.SECONDS).delivered(), 1);
+    assertEquals(second.get(5, TimeUnit.SECONDS).delivered(), 1);
+  }
+  
+  @Test
+  public void testFailedBatchFailsEachEvent() throws Exception {
+    final IllegalStateException failure = new IllegalStateException("Batch failure");
+    final BatchEventHandler handler = events -> {
+      throw failure;
+    };
+    final EventBus bus = bus(2, 1, TimeUnit.HOURS);
+    bus.subscribe(String.class, handler);
+    final List<CompletableFuture<DeliveryReport>> reports = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      reports.add(bus.submitTracked(SOURCE, "event").toCompletableFuture());
+    }
+    for (CompletableFuture<DeliveryReport> report : reports) {
+      assertSame(report.get(5, TimeUnit.SECONDS).failures().get(handler), failure);
+    }
+  }
+  
+  @Test
+  public void testFailedBatchIsRetriedAndDeadLettered() throws Exception {
+    final AtomicInteger attempts = new AtomicInteger();
+    final BatchEventHandler handler = events -> {
+      attempts.addAndGet(events.size());
+      throw new IllegalStateException("Batch failure");
+    };
+    final EventBus bus = bus(2, 10, TimeUnit.MILLISECONDS);
+    bus.subscribe(String.class, handler,
+            DeliveryPolicy.retrying(new RetryPolicy(1, 1, 1, 1, TimeUnit.MILLISECONDS)));
+    for (int i = 0; i < 2; i++) {
+      bus.submit(SOURCE, "event");
+    }
+    assertTrue(bus.awaitQuiescence(5, TimeUnit.SECONDS));
+    assertEquals(attempts.get(), 4);
+    assertEquals(bus.retried(), 2);
+    assertEquals(bus.deadLetters().size(), 2);
+  }
+  
+  @Test
+  public void testOtherSubscribersDelegated() throws Exception {
+    final AtomicInteger handled = new AtomicInteger();
+    final EventBus bus = bus(3, 1, TimeUnit.HOURS);
+    bus.subscribe(String.class, (BatchEventHandler) batches::add);
+    bus.subscribe(String.class, event -> handled.incrementAndGet());
+    for (int i = 0; i < 3; i++) {
+      bus.submit(SOURCE, "event");
+    }
+    assertTrue(bus.awaitQuiescence(5, TimeUnit.SECONDS));
+    assertEquals(handled.get(), 3);
+    assertEquals(batches.size(), 1);
+    assertEquals(batches.get(0).size(), 3);
+  }
+  
+  @Test
+  public void testBatchesNeverDeliveredConcurrently() throws Exception {
+    final AtomicBoolean delivering = new AtomicBoolean();
+    final AtomicBoolean overlapped = new AtomicBoolean();
+    final AtomicInteger handled = new AtomicInteger();
+    final EventBus bus = bus(3, 1, TimeUnit.MILLISECONDS);
+    bus.subscribe(String.class, (BatchEventHandler) events -> {
+      if (!delivering.compareAndSet(false, true)) {
+        overlapped.set(true);
+      }
+      Thread.yield();
+      handled.addAndGet(events.size());
+      delivering.set(false);
+    });
+    final CountDownLatch published = new CountDownLatch(4);
+    final ExecutorService publishers = Executors.newFixedThreadPool(4);
+    try {
+      for (int i = 0; i < 4; i++) {
+        publishers.execute(() -> {
+          for (int j = 0; j < 500; j++) {
+            bus.submit(SOURCE, "event");
+          }
+          published.countDown();
+        });
+      }
+      assertTrue(published.await(10, TimeUnit.SECONDS));
+    } finally {
+      publishers.shutdownNow();
+    }
+    assertTrue(bus.awaitQuiescence(5, TimeUnit.SECONDS));
+    assertEquals(handled.get(), 2000);
+    assertFalse(overlapped.get());
+  }
+  
+  private EventBus bus(int maxBatchSize, long maxLinger, TimeUnit unit) {
+    return new EventBus(new BatchingDispatcher(fixture.pool(), timingWheel, maxBatchSize, maxLinger, unit),
+            timingWheel);
+  }
+}
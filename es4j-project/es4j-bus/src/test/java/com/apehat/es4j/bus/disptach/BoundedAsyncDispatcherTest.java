@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class BoundedAsyncDispatcherTest {
+  
+  private static final int CAPACITY = 2;
+  
+  private DispatcherFixture fixture;
+  private Subscriber[] subscribers;
+  private List<String> handled;
+  private List<String> threads;
+  
+  @BeforeMethod
+  public void setUp() {
+    fixture = new DispatcherFixture(BoundedAsyncDispatcherTest.class, 2);
+    handled = new CopyOnWriteArrayList<>();
+    threads = new CopyOnWriteArrayList<>();
+    subscribers = fixture.subscribe(String.class, event -> {
+      if ("running".equals(event.prototype())) {
+        fixture.block();
+      }
+      handled.add((String) event.prototype());
+      threads.add(Thread.currentThread().getName());
+    });
+  }
+  
+  @AfterMethod
+  public void tearDown() {
+    fixture.close();
+  }
+  
+  @Test
+  public void testBlockRejectsAfterTimeout() throws Exception {
+    final BoundedAsyncDispatcher dispatcher = fill(
+            new BoundedAsyncDispatcher(fixture.pool(), CAPACITY, 1, OverflowPolicy.BLOCK, 10, TimeUnit.MILLISECONDS));
+    try {
+      dispatcher.dispatch(fixture.provisionEvent("overflow"), subscribers);
+      fail("Full queue should reject after timeout");
+    } catch (RejectedExecutionException expected) {
+      // expected
+    }
+    assertEquals(dispatcher.blocked(), 1);
+    assertEquals(dispatcher.rejected(), 1);
+    awaitHandled(3);
+    assertEquals(dispatcher.accepted(), 3);
+  }
+  
+  @Test
+  public void testCallerRuns() throws Exception {
+    final BoundedAsyncDispatcher dispatcher = fill(
+            new BoundedAsyncDispatcher(fixture.pool(), CAPACITY, 1, OverflowPolicy.CALLER_RUNS));
+    dispatcher.dispatch(fixture.provisionEvent("overflow"), subscribers);
+    assertTrue(handled.contains("overflow"));
+    assertEquals(threads.get(handled.indexOf("overflow")), Thread.currentThread().getName());
+    assertEquals(dispatcher.callerRuns(), 1);
+    awaitHandled(4);
+  }
+  
+  @Test
+  public void testDropNewest() throws Exception {
+    final BoundedAsyncDispatcher dispatcher = fill(
+            new BoundedAsyncDispatcher(fixture.pool(), CAPACITY, 1, OverflowPolicy.DROP_NEWEST));
+    dispatcher.dispatch(fixture.provisionEvent("overflow"), subscribers);
+    assertEquals(dispatcher.droppedNewest(), 1);
+    awaitHandled(3);
+    assertFalse(handled.contains("overflow"));
+  }
+  
+  @Test
+  public void testDropOldest() throws Exception {
+    final BoundedAsyncDispatcher dispatcher = fill(
+            new BoundedAsyncDispatcher(fixture.pool(), CAPACITY, 1, OverflowPolicy.DROP_OLDEST));
+    dispatcher.dispatch(fixture.provisionEvent("overflow"), subscribers);
+    assertEquals(dispatcher.droppedOldest(), 1);
+    assertEquals(dispatcher.depth(), CAPACITY);
+    awaitHandled(3);
+    assertFalse(handled.contains("queued-0"));
+    assertEquals(handled.get(handled.size() - 1), "overflow");
+  }
+  
+  @Test
+  public void testRejectedDrainerTakesDeliveryBack() {
+    final BoundedAsyncDispatcher dispatcher =
+            new BoundedAsyncDispatcher(fixture.pool(), CAPACITY, 1, OverflowPolicy.BLOCK);
+    fixture.dispatchRejected(dispatcher, subscribers);
+    assertEquals(dispatcher.depth(), 0);
+    assertEquals(dispatcher.accepted(), 0);
+    assertEquals(dispatcher.rejected(), 1);
+  }
+  
+  /*
+   * The first event occupies the only drainer, the others fill the queue.
+   */
+  private BoundedAsyncDispatcher fill(BoundedAsyncDispatcher dispatcher) throws Exception {
+    dispatcher.dispatch(fixture.provisionEvent("running"), subscribers);
+    fixture.awaitBlocked();
+    for (int i = 0; i < CAPACITY; i++) {
+      dispatcher.dispatch(fixture.provisionEvent("queued-" + i), subscribers);
+    }
+    assertEquals(dispatcher.depth(), CAPACITY);
+    return dispatcher;
+  }
+  
+  private void awaitHandled(int expected) throws InterruptedException {
+    fixture.unblock();
+    DispatcherFixture.await(() -> handled.size() == expected);
+  }
+}
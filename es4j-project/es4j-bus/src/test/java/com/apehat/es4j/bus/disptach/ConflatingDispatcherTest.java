@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class ConflatingDispatcherTest {
+  
+  private static final int KEYS = 3;
+  private static final int TICKS = 100;
+  
+  private DispatcherFixture fixture;
+  
+  @BeforeMethod
+  public void setUp() {
+    fixture = new DispatcherFixture(ConflatingDispatcherTest.class, 2);
+  }
+  
+  @AfterMethod
+  public void tearDown() {
+    fixture.close();
+  }
+  
+  @Test
+  public void testOnlyNewestPendingEventOfKeyIsDispatched() throws Exception {
+    final List<String> handled = new CopyOnWriteArrayList<>();
+    final Subscriber[] subscribers = fixture.subscribe(String.class, event -> {
+      fixture.block();
+      handled.add((String) event.prototype());
+    });
+    final ConflatingDispatcher dispatcher = new ConflatingDispatcher(fixture.pool(),
+            event -> ((String) event.prototype()).substring(0, 1));
+    
+    dispatcher.dispatch(fixture.provisionEvent("blocking"), subscribers);
+    fixture.awaitBlocked();
+    for (int tick = 0; tick < TICKS; tick++) {
+      for (int key = 0; key < KEYS; key++) {
+        dispatcher.dispatch(fixture.provisionEvent(key + "-" + tick), subscribers);
+      }
+    }
+    assertEquals(dispatcher.depth(), KEYS);
+    assertEquals(dispatcher.conflated(), (long) KEYS * (TICKS - 1));
+    
+    fixture.unblock();
+    DispatcherFixture.await(() -> handled.size() == KEYS + 1);
+    for (int key = 0; key < KEYS; key++) {
+      assertTrue(handled.contains(key + "-" + (TICKS - 1)));
+    }
+    assertEquals(dispatcher.depth(), 0);
+  }
+  
+  @Test
+  public void testRejectedDrainerTakesDeliveryBack() {
+    final ConflatingDispatcher dispatcher = new ConflatingDispatcher(fixture.pool(), event -> event.prototype());
+    fixture.dispatchRejected(dispatcher, new Subscriber[0]);
+    assertEquals(dispatcher.depth(), 0);
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.DistinctHandler;
+import com.apehat.es4j.bus.EventHandler;
+import com.apehat.es4j.bus.event.DeliveryTracker;
+import com.apehat.es4j.bus.event.Event;
+import com.apehat.es4j.bus.event.EventIdentityService;
+import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import com.apehat.es4j.bus.subscriber.SubscriberIdentityService;
+import com.apehat.es4j.bus.subscriber.support.ConcurrentSubscriberRepository;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * The fixture shared by the dispatcher tests: the pool of dispatcher, the
+ * identity services of subscribers and events, and a gate which blocks
+ * the handlers until released. It is created before and closed after each
+ * test method.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class DispatcherFixture implements AutoCloseable {
+  
+  static final int SUBSCRIBERS = 8;
+  
+  private final ExecutorService pool;
+  private final String source;
+  private final EventIdentityService eventIdentityService = new EventIdentityService();
+  private final SubscriberIdentityService subscriberIdentityService =
+          new SubscriberIdentityService(new ConcurrentSubscriberRepository(), eventIdentityService.sequence());
+  private final CountDownLatch started = new CountDownLatch(1);
+  private final CountDownLatch release = new CountDownLatch(1);
+  
+  DispatcherFixture(Class<?> test, int threads) {
+    this.pool = Executors.newFixedThreadPool(threads);
+    this.source = test.getName();
+  }
+  
+  ExecutorService pool() {
+    return pool;
+  }
+  
+  /**
+   * Subscribe the handler to the type.
+   *
+   * @return all subscribers of the type
+   */
+  Subscriber[] subscribe(Class<?> type, EventHandler handler) {
+    subscriberIdentityService.provisionSubscriber(type, handler);
+    return subscriberIdentityService.snapshotWith(type);
+  }
+  
+  /**
+   * Subscribe the specified number of distinct handlers to the type, which
+   * all delegate to the handler.
+   *
+   * @return all subscribers of the type
+   */
+  Subscriber[] subscribe(Class<?> type, int count, Consumer<Event> handler) {
+    for (int i = 0; i < count; i++) {
+      subscriberIdentityService.provisionSubscriber(type, new DistinctHandler(handler));
+    }
+    return subscriberIdentityService.snapshotWith(type);
+  }
+  
+  PendingEvent provisionEvent(Object prototype) {
+    return eventIdentityService.provisionEvent(prototype, source);
+  }
+  
+  PendingEvent provisionEvent(Object prototype, DeliveryTracker tracker) {
+    return eventIdentityService.provisionEvent(prototype, source, tracker);
+  }
+  
+  PendingEvent provisionEvent(Object prototype, DeliveryTracker tracker, int priority) {
+    return eventIdentityService.provisionEvent(prototype, source, tracker, priority);
+  }
+  
+  /**
+   * Block the calling handler until {@link #unblock()}, at most 5 seconds.
+   */
+  void block() {
+    started.countDown();
+    try {
+      release.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  void awaitBlocked() throws InterruptedException {
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+  }
+  
+  void unblock() {
+    release.countDown();
+  }
+  
+  /**
+   * Dispatch an event after the pool was shut down, and check that the
+   * rejected dispatcher released the reference it took.
+   *
+   * @return the rejected event
+   */
+  PendingEvent dispatchRejected(Dispatcher dispatcher, Subscriber[] subscribers) {
+    pool.shutdownNow();
+    final PendingEvent event = provisionEvent("rejected");
+    try {
+      dispatcher.dispatch(event, subscribers);
+      fail("Dispatch should be rejected");
+    } catch (RejectedExecutionException expected) {
+      // expected
+    }
+    assertEquals(event.references(), 1);
+    return event;
+  }
+  
+  static void await(BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean() && System.nanoTime() - deadline < 0) {
+      Thread.sleep(1);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+  
+  @Override
+  public void close() {
+    release.countDown();
+    pool.shutdownNow();
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.EventHandler;
+import com.apehat.es4j.bus.event.DeliveryTracker;
+import com.apehat.es4j.bus.event.PendingEvent;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.apehat.es4j.bus.disptach.DispatcherFixture.await;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class MailboxDispatcherTest {
+  
+  private static final int EVENTS = 10;
+  private static final int CAPACITY = 4;
+  
+  private DispatcherFixture fixture;
+  private CountDownLatch fastDone;
+  private AtomicInteger slowHandled;
+  private EventHandler slow;
+  private Subscriber[] subscribers;
+  
+  @BeforeMethod
+  public void setUp() {
+    fixture = new DispatcherFixture(MailboxDispatcherTest.class, 2);
+    fastDone = new CountDownLatch(EVENTS);
+    slowHandled = new AtomicInteger();
+    slow = event -> {
+      fixture.block();
+      slowHandled.incrementAndGet();
+    };
+    fixture.subscribe(String.class, slow);
+    subscribers = fixture.subscribe(String.class, event -> fastDone.countDown());
+  }
+  
+  @AfterMethod
+  public void tearDown() {
+    fixture.close();
+  }
+  
+  @Test
+  public void testSlowSubscriberIsIsolated() throws Exception {
+    final MailboxDispatcher dispatcher = new MailboxDispatcher(fixture.pool(), EVENTS, OverflowPolicy.BLOCK);
+    dispatch(dispatcher);
+    assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+    assertTrue(dispatcher.depthOf(slow) >= EVENTS - 1);
+    
+    fixture.unblock();
+    await(() -> slowHandled.get() == EVENTS);
+    assertEquals(dispatcher.mailboxes(), 2);
+  }
+  
+  @Test
+  public void testOverflowOnlyAffectsFullMailbox() throws Exception {
+    final MailboxDispatcher dispatcher = new MailboxDispatcher(fixture.pool(), CAPACITY, OverflowPolicy.DROP_NEWEST);
+    dispatchPaced(dispatcher, new DeliveryTracker() {
+    });
+    assertEquals(dispatcher.depthOf(slow), CAPACITY);
+    assertTrue(dispatcher.dropped() >= EVENTS - CAPACITY - 1);
+    
+    fixture.unblock();
+    await(() -> slowHandled.get() + dispatcher.dropped() == EVENTS);
+  }
+  
+  @Test
+  public void testIdleMailboxRetired() throws Exception {
+    final MailboxDispatcher dispatcher =
+            new MailboxDispatcher(fixture.pool(), CAPACITY, OverflowPolicy.BLOCK, 1, 1, TimeUnit.SECONDS);
+    fixture.unblock();
+    dispatch(dispatcher);
+    await(() -> slowHandled.get() == EVENTS && fastDone.getCount() == 0);
+    assertEquals(dispatcher.mailboxes(), 2);
+    
+    Thread.sleep(1100);
+    dispatcher.dispatch(fixture.provisionEvent("event"), new Subscriber[]{subscribers[1]});
+    assertEquals(dispatcher.mailboxes(), 1);
+  }
+  
+  @Test
+  public void testRejectedEventNotQueued() {
+    final MailboxDispatcher dispatcher = new MailboxDispatcher(fixture.pool(), CAPACITY, OverflowPolicy.BLOCK);
+    fixture.pool().shutdownNow();
+    dispatch(dispatcher);
+    assertEquals(dispatcher.depthOf(slow), 0);
+    assertEquals(dispatcher.rejected(), 2 * EVENTS);
+  }
+  
+  @Test
+  public void testFullMailboxReportedAsDiscarded() throws Exception {
+    final MailboxDispatcher dispatcher =
+            new MailboxDispatcher(fixture.pool(), 1, OverflowPolicy.BLOCK, 0, TimeUnit.MILLISECONDS);
+    final Map<EventHandler, Integer> discarded = new ConcurrentHashMap<>();
+    final DeliveryTracker tracker = new DeliveryTracker() {
+      @Override
+      public void discarded(EventHandler handler) {
+        discarded.merge(handler, 1, Integer::sum);
+      }
+    };
+    dispatchPaced(dispatcher, tracker);
+    assertTrue(discarded.get(slow) >= EVENTS - 2);
+    assertEquals(discarded.size(), 1);
+    assertEquals(dispatcher.rejected(), (long) discarded.get(slow));
+  }
+  
+  @Test
+  public void testQueuedEventRetainedUntilDelivered() throws Exception {
+    final MailboxDispatcher dispatcher = new MailboxDispatcher(fixture.pool(), EVENTS, OverflowPolicy.BLOCK);
+    final PendingEvent[] events = new PendingEvent[EVENTS];
+    for (int i = 0; i < EVENTS; i++) {
+      events[i] = fixture.provisionEvent("event-" + i);
+      dispatcher.dispatch(events[i], subscribers);
+    }
+    assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+    // the first event is being delivered, the others wait in the mailbox of slow subscriber
+    await(() -> dispatcher.depthOf(slow) == EVENTS - 1);
+    // the fast subscriber releases each event just after it was handled
+    await(() -> Arrays.stream(events, 1, EVENTS).allMatch(event -> event.references() == 2));
+    
+    fixture.unblock();
+    await(() -> Arrays.stream(events).allMatch(event -> event.references() == 1));
+  }
+  
+  /*
+   * Dispatch each event after the fast subscriber handled the previous one,
+   * so only the mailbox of slow subscriber overflows.
+   */
+  private void dispatchPaced(MailboxDispatcher dispatcher, DeliveryTracker tracker) throws InterruptedException {
+    for (int i = 0; i < EVENTS; i++) {
+      dispatcher.dispatch(fixture.provisionEvent("event-" + i, tracker), subscribers);
+      final long handled = i + 1;
+      await(() -> EVENTS - fastDone.getCount() == handled);
+    }
+  }
+  
+  private void dispatch(MailboxDispatcher dispatcher) {
+    for (int i = 0; i < EVENTS; i++) {
+      dispatcher.dispatch(fixture.provisionEvent("event-" + i), subscribers);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.EventBus;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class PartitionedDispatcherTest {
+  
+  private static final int SOURCES = 8;
+  private static final int EVENTS_PER_SOURCE = 500;
+  
+  private DispatcherFixture fixture;
+  
+  @BeforeMethod
+  public void setUp() {
+    fixture = new DispatcherFixture(PartitionedDispatcherTest.class, 4);
+  }
+  
+  @AfterMethod
+  public void tearDown() {
+    fixture.close();
+  }
+  
+  @Test
+  public void testEventsOfSameSourceAreHandledInOrder() throws Exception {
+    final EventBus bus = new EventBus(new PartitionedDispatcher(fixture.pool(), 4));
+    final Map<String, List<Integer>> handled = new ConcurrentHashMap<>();
+    final CountDownLatch latch = new CountDownLatch(SOURCES * EVENTS_PER_SOURCE);
+    bus.subscribe(Integer.class, event -> {
+      handled.computeIfAbsent(event.source(), source -> new CopyOnWriteArrayList<>())
+              .add((Integer) event.prototype());
+      latch.countDown();
+    });
+    
+    for (int i = 0; i < EVENTS_PER_SOURCE; i++) {
+      for (int source = 0; source < SOURCES; source++) {
+        bus.submit("source-" + source, i);
+      }
+    }
+    
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertEquals(handled.size(), SOURCES);
+    for (List<Integer> events : handled.values()) {
+      for (int i = 0; i < EVENTS_PER_SOURCE; i++) {
+        assertEquals(events.get(i).intValue(), i);
+      }
+    }
+  }
+  
+  @Test
+  public void testRejectedLaneTakesDeliveryBack() {
+    final PartitionedDispatcher dispatcher = new PartitionedDispatcher(fixture.pool(), 4);
+    fixture.dispatchRejected(dispatcher, new Subscriber[0]);
+    assertEquals(dispatcher.depthOf(PartitionedDispatcherTest.class.getName()), 0);
+  }
+}
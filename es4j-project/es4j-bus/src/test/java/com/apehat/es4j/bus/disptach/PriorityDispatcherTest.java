@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.event.DeliveryTracker;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class PriorityDispatcherTest {
+  
+  private static final int BULK = 100;
+  
+  private DispatcherFixture fixture;
+  private List<Object> handled;
+  private Subscriber[] subscribers;
+  
+  @BeforeMethod
+  public void setUp() {
+    fixture = new DispatcherFixture(PriorityDispatcherTest.class, 1);
+    handled = new CopyOnWriteArrayList<>();
+    subscribers = fixture.subscribe(Object.class, event -> {
+      fixture.block();
+      handled.add(event.prototype());
+    });
+  }
+  
+  @AfterMethod
+  public void tearDown() {
+    fixture.close();
+  }
+  
+  @Test
+  public void testLaneOfTypeOvertakesBulk() throws Exception {
+    final PriorityDispatcher dispatcher = new PriorityDispatcher(fixture.pool(), 1, 8, 1);
+    dispatcher.assign(Number.class, 0);
+    blockAndFillBulk(dispatcher);
+    dispatcher.dispatch(fixture.provisionEvent(42), subscribers);
+    assertEquals(dispatcher.depthOf(0), 1);
+    
+    awaitHandled(dispatcher);
+    assertEquals(handled.indexOf(42), 1);
+  }
+  
+  @Test
+  public void testPriorityOfSubmitOvertakesBulk() throws Exception {
+    final PriorityDispatcher dispatcher = new PriorityDispatcher(fixture.pool(), 1, 8, 1);
+    blockAndFillBulk(dispatcher);
+    dispatcher.dispatch(fixture.provisionEvent("control", new DeliveryTracker() {
+    }, 0), subscribers);
+    
+    awaitHandled(dispatcher);
+    assertEquals(handled.indexOf("control"), 1);
+  }
+  
+  @Test
+  public void testLowPriorityLaneIsNotStarved() throws Exception {
+    final PriorityDispatcher dispatcher = new PriorityDispatcher(fixture.pool(), 1, 3, 1);
+    dispatcher.assign(Number.class, 0);
+    blockAndFillBulk(dispatcher);
+    for (int i = 0; i < BULK; i++) {
+      dispatcher.dispatch(fixture.provisionEvent(i), subscribers);
+    }
+    
+    awaitHandled(dispatcher);
+    // each 4 picks, 1 pick from the bulk lane
+    int bulk = 0;
+    for (Object event : handled.subList(1, 41)) {
+      if (event instanceof String) {
+        bulk++;
+      }
+    }
+    assertEquals(bulk, 10);
+  }
+  
+  @Test
+  public void testRejectedDrainerTakesDeliveryBack() {
+    final PriorityDispatcher dispatcher = new PriorityDispatcher(fixture.pool(), 1, 4, 1);
+    fixture.dispatchRejected(dispatcher, subscribers);
+    assertEquals(dispatcher.depthOf(1), 0);
+  }
+  
+  private void blockAndFillBulk(PriorityDispatcher dispatcher) throws InterruptedException {
+    dispatcher.dispatch(fixture.provisionEvent("blocking"), subscribers);
+    fixture.awaitBlocked();
+    for (int i = 0; i < BULK; i++) {
+      dispatcher.dispatch(fixture.provisionEvent("bulk-" + i), subscribers);
+    }
+    assertEquals(dispatcher.depthOf(1), BULK);
+  }
+  
+  private void awaitHandled(PriorityDispatcher dispatcher) throws InterruptedException {
+    int expected = handled.size() + 1;
+    for (int lane = 0; lane < dispatcher.lanes(); lane++) {
+      expected += dispatcher.depthOf(lane);
+    }
+    final int total = expected;
+    fixture.unblock();
+    DispatcherFixture.await(() -> handled.size() == total);
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.EventBus;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class RingBufferDispatcherTest {
+  
+  private static final int PRODUCERS = 4;
+  private static final int EVENTS_PER_PRODUCER = 20000;
+  
+  @Test
+  public void testAllEventsDeliveredBeforeClose() throws Exception {
+    final RingBufferDispatcher dispatcher = new RingBufferDispatcher(256, 2);
+    final EventBus bus = new EventBus(dispatcher);
+    final AtomicLong sum = new AtomicLong();
+    bus.subscribe(Integer.class, event -> sum.addAndGet((Integer) event.prototype()));
+    
+    final ExecutorService producers = Executors.newFixedThreadPool(PRODUCERS);
+    final List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < PRODUCERS; i++) {
+      futures.add(producers.submit(() -> {
+        for (int j = 1; j <= EVENTS_PER_PRODUCER; j++) {
+          bus.submit(RingBufferDispatcherTest.class.getName(), j);
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get(30, TimeUnit.SECONDS);
+    }
+    producers.shutdown();
+    dispatcher.close();
+    
+    final long expected = (long) EVENTS_PER_PRODUCER * (EVENTS_PER_PRODUCER + 1) / 2 * PRODUCERS;
+    assertEquals(sum.get(), expected);
+    assertEquals(dispatcher.pending(), 0);
+  }
+  
+  @Test(expectedExceptions = RejectedExecutionException.class)
+  public void testDispatchAfterClose() throws Exception {
+    final RingBufferDispatcher dispatcher = new RingBufferDispatcher(16, 1);
+    final EventBus bus = new EventBus(dispatcher);
+    bus.subscribe(Integer.class, event -> {
+    });
+    dispatcher.close();
+    bus.submit(RingBufferDispatcherTest.class.getName(), 1);
+  }
+  
+  @Test
+  public void testConsumerSurvivesError() throws Exception {
+    final RingBufferDispatcher dispatcher = new RingBufferDispatcher(16, 1);
+    final EventBus bus = new EventBus(dispatcher);
+    final CountDownLatch delivered = new CountDownLatch(1);
+    bus.subscribe(Integer.class, event -> {
+      assertTrue(Thread.currentThread().isDaemon());
+      if ((Integer) event.prototype() == 1) {
+        throw new Error("Delivery failure");
+      }
+      delivered.countDown();
+    });
+    bus.submit(RingBufferDispatcherTest.class.getName(), 1);
+    bus.submit(RingBufferDispatcherTest.class.getName(), 2);
+    assertTrue(delivered.await(5, TimeUnit.SECONDS));
+    dispatcher.close();
+  }
+  
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testCapacityMustBePowerOfTwo() {
+    new RingBufferDispatcher(100, 1);
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.apehat.es4j.bus.disptach.DispatcherFixture.SUBSCRIBERS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Runs against the packaged multi-release jar, so the Java 21 version of
+ * {@link VirtualThreads} is loaded.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class VirtualThreadDispatcherIT {
+  
+  private DispatcherFixture fixture;
+  
+  @BeforeMethod
+  public void setUp() {
+    fixture = new DispatcherFixture(VirtualThreadDispatcherIT.class, 1);
+  }
+  
+  @AfterMethod
+  public void tearDown() {
+    fixture.close();
+  }
+  
+  @Test
+  public void testSubscribersRunOnVirtualThreads() throws Exception {
+    // compiled for Java 8, so Thread.isVirtual() is looked up reflectively
+    final Method isVirtual = Thread.class.getMethod("isVirtual");
+    final Set<Object> virtual = ConcurrentHashMap.newKeySet();
+    final Subscriber[] subscribers = fixture.subscribe(String.class, SUBSCRIBERS, event -> {
+      try {
+        virtual.add(isVirtual.invoke(Thread.currentThread()));
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    try (VirtualThreadDispatcher dispatcher = new VirtualThreadDispatcher(fixture.pool())) {
+      assertTrue(dispatcher.isVirtual());
+      dispatcher.submit(fixture.provisionEvent("event"), subscribers).get(5, TimeUnit.SECONDS);
+    }
+    assertEquals(virtual, Collections.singleton(Boolean.TRUE));
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.disptach;
+
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.apehat.es4j.bus.disptach.DispatcherFixture.SUBSCRIBERS;
+import static org.testng.Assert.assertEquals;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class VirtualThreadDispatcherTest {
+  
+  private DispatcherFixture fixture;
+  
+  @BeforeMethod
+  public void setUp() {
+    fixture = new DispatcherFixture(VirtualThreadDispatcherTest.class, 1);
+  }
+  
+  @AfterMethod
+  public void tearDown() {
+    fixture.close();
+  }
+  
+  @Test
+  public void testDispatchOnCurrentRuntime() throws Exception {
+    final AtomicInteger handled = new AtomicInteger();
+    final Subscriber[] subscribers =
+            fixture.subscribe(String.class, SUBSCRIBERS, event -> handled.incrementAndGet());
+    try (VirtualThreadDispatcher dispatcher = new VirtualThreadDispatcher(fixture.pool())) {
+      dispatcher.submit(fixture.provisionEvent("event"), subscribers).get(5, TimeUnit.SECONDS);
+    }
+    assertEquals(handled.get(), SUBSCRIBERS);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.event;
+
+import com.apehat.es4j.bus.DomainRegistry;
+import com.apehat.es4j.bus.timer.Sequence;
+import org.testng.annotations.Test;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class EnvelopePoolTest {
+  
+  private static final String SOURCE = EnvelopePoolTest.class.getName();
+  private static final DeliveryTracker TRACKER = new DeliveryTracker() {
+  };
+  
+  @Test
+  public void testRecycleAfterLastRelease() {
+    final EnvelopePool pool = new EnvelopePool(4, false);
+    final EventIdentityService eventIdentityService = provisionService(pool);
+    final PendingEvent event = eventIdentityService.acquireEvent("event", SOURCE, TRACKER, 0);
+    assertEquals(event.priority(), 0);
+    
+    event.retain();
+    assertFalse(event.release());
+    assertEquals(pool.size(), 0);
+    assertTrue(event.release());
+    assertEquals(pool.size(), 1);
+    
+    final PendingEvent reused = eventIdentityService.acquireEvent("reused", SOURCE, TRACKER,
+            PendingEvent.UNSPECIFIED_PRIORITY);
+    assertSame(reused, event);
+    assertEquals(reused.references(), 1);
+    assertEquals(reused.toEvent().prototype(), "reused");
+    assertEquals(pool.created(), 1);
+    assertEquals(pool.recycled(), 1);
+  }
+  
+  @Test
+  public void testEnvelopeLeftToCollectorWhenFull() {
+    final EnvelopePool pool = new EnvelopePool(1, false);
+    final EventIdentityService eventIdentityService = provisionService(pool);
+    final PendingEvent first = eventIdentityService.acquireEvent("first", SOURCE, TRACKER, 0);
+    final PendingEvent second = eventIdentityService.acquireEvent("second", SOURCE, TRACKER, 0);
+    assertTrue(first.release());
+    assertTrue(second.release());
+    assertEquals(pool.created(), 2);
+    assertEquals(pool.recycled(), 1);
+    assertEquals(pool.size(), 1);
+  }
+  
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void testReleaseTwice() {
+    final PendingEvent event = provisionService(new EnvelopePool(4, false))
+            .acquireEvent("event", SOURCE, TRACKER, 0);
+    event.release();
+    event.release();
+  }
+  
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void testToEventAfterRelease() {
+    final PendingEvent event = provisionService(new EnvelopePool(4, false))
+            .acquireEvent("event", SOURCE, TRACKER, 0);
+    event.release();
+    event.toEvent();
+  }
+  
+  @Test
+  public void testReportLeak() throws Exception {
+    final EnvelopePool pool = new EnvelopePool(4, true);
+    final EventIdentityService eventIdentityService = provisionService(pool);
+    eventIdentityService.acquireEvent("leaked", SOURCE, TRACKER, 0);
+    
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (pool.leaks() == 0 && System.nanoTime() < deadline) {
+      System.gc();
+      Thread.sleep(10);
+      eventIdentityService.acquireEvent("event", SOURCE, TRACKER, 0).release();
+    }
+    assertEquals(pool.leaks(), 1);
+  }
+  
+  private static EventIdentityService provisionService(EnvelopePool pool) {
+    return new EventIdentityService(PrototypeAccess.COPY, DomainRegistry.cloningService(),
+            Clock.systemUTC(), Sequence.shared(), pool);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.event;
+
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class ImmutabilityTest {
+  
+  @Test
+  public void testKnownImmutableTypes() {
+    assertTrue(Immutability.isImmutable(String.class));
+    assertTrue(Immutability.isImmutable(Long.class));
+    assertTrue(Immutability.isImmutable(Instant.class));
+    assertTrue(Immutability.isImmutable(Thread.State.class));
+    assertFalse(Immutability.isImmutable(Date.class));
+    assertFalse(Immutability.isImmutable(int[].class));
+  }
+  
+  @Test
+  public void testFinalFieldsOfImmutableTypes() {
+    assertTrue(Immutability.isImmutable(PriceChanged.class));
+    assertTrue(Immutability.isImmutable(OrderPlaced.class));
+    assertTrue(Immutability.isImmutable(Node.class));
+  }
+  
+  @Test
+  public void testUnprovableTypes() {
+    assertFalse(Immutability.isImmutable(MutableField.class));
+    assertFalse(Immutability.isImmutable(MutableFieldType.class));
+    assertFalse(Immutability.isImmutable(InterfaceFieldType.class));
+    assertFalse(Immutability.isImmutable(MutableSuperclass.class));
+  }
+  
+  @Test
+  public void testAnnotatedTypes() {
+    assertTrue(Immutability.isImmutable(AnnotatedCache.class));
+    assertTrue(Immutability.isImmutable(AnnotatedInterfaceField.class));
+  }
+  
+  static final class PriceChanged {
+    private final String symbol;
+    private final long price;
+    private final Instant at;
+    
+    PriceChanged(String symbol, long price, Instant at) {
+      this.symbol = symbol;
+      this.price = price;
+      this.at = at;
+    }
+  }
+  
+  static class OrderPlaced {
+    private final PriceChanged price;
+    private final int quantity;
+    
+    OrderPlaced(PriceChanged price, int quantity) {
+      this.price = price;
+      this.quantity = quantity;
+    }
+  }
+  
+  static final class Node {
+    private final String value;
+    private final Node next;
+    
+    Node(String value, Node next) {
+      this.value = value;
+      this.next = next;
+    }
+  }
+  
+  static final class MutableField {
+    private String value;
+  }
+  
+  static final class MutableFieldType {
+    private final Date date = new Date();
+  }
+  
+  static final class InterfaceFieldType {
+    private final List<String> values = null;
+  }
+  
+  static class Counter {
+    private int count;
+  }
+  
+  static final class MutableSuperclass extends Counter {
+    private final String name = "counter";
+  }
+  
+  @Immutable
+  static final class AnnotatedCache {
+    private int hash;
+  }
+  
+  @Immutable
+  interface Money {
+  }
+  
+  static final class AnnotatedInterfaceField {
+    private final Money money = null;
+  }
+}
@@ -114,4 +114,23 @@ public class CompositeTypeTest {
     LOGGER.debug("After remove {}", type);
     assertTrue(type.isAssignableFrom(assignableType));
   }
-}
\ No newline at end of file
+  
+  @Test
+  public void testRemoveSubtypeOfIncludedType() {
+    final Type type = new CompositeType(SampleSuperClass.class).remove(SampleMiddleClass1.class);
+    assertTrue(type.isAssignableFrom(SampleSuperClass.class));
+    assertTrue(type.isAssignableFrom(SampleMiddleClass2.class));
+    assertFalse(type.isAssignableFrom(SampleMiddleClass1.class));
+    assertFalse(type.isAssignableFrom(SampleClass1.class));
+  }
+  
+  @Test
+  public void testAddBackSubtypeOfExcludedType() {
+    final Type type = new CompositeType(SampleSuperClass.class)
+            .remove(SampleMiddleClass1.class)
+            .add(SampleClass1.class);
+    assertTrue(type.isAssignableFrom(SampleClass1.class));
+    assertFalse(type.isAssignableFrom(SampleClass2.class));
+    assertTrue(type.add(SampleMiddleClass1.class).isAssignableFrom(SampleClass2.class));
+  }
+}
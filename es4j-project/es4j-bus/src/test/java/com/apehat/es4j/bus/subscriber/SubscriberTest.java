@@ -0,0 +1,233 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.subscriber;
+
+import com.apehat.es4j.bus.EventHandler;
+import com.apehat.es4j.bus.event.DeliveryTracker;
+import com.apehat.es4j.bus.event.EventIdentityService;
+import com.apehat.es4j.bus.event.PendingEvent;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class SubscriberTest {
+  
+  private final EventIdentityService eventIdentityService = new EventIdentityService();
+  
+  @Test
+  public void testHandlerOverBudgetIsInterrupted() {
+    final boolean[] interrupted = {false};
+    final Subscriber subscriber = subscribe(event -> {
+      try {
+        Thread.sleep(5000);
+      } catch (InterruptedException e) {
+        interrupted[0] = true;
+      }
+    }, new DeliveryPolicy(20, 0, 0, TimeUnit.MILLISECONDS));
+    try {
+      subscriber.onEvent(provisionEvent());
+      fail("Handler over budget should time out");
+    } catch (SubscriberTimeoutException expected) {
+      // expected
+    }
+    assertTrue(interrupted[0]);
+    assertFalse(Thread.currentThread().isInterrupted());
+  }
+  
+  @Test
+  public void testInterruptNotFromWatchdogIsKept() {
+    final Subscriber subscriber = subscribe(event -> {
+      Thread.currentThread().interrupt();
+      final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+      while (System.nanoTime() - deadline < 0) {
+        Thread.yield();
+      }
+    }, new DeliveryPolicy(20, 0, 0, TimeUnit.MILLISECONDS));
+    try {
+      subscriber.onEvent(provisionEvent());
+      fail("Handler over budget should time out");
+    } catch (SubscriberTimeoutException expected) {
+      // expected
+    }
+    assertTrue(Thread.interrupted());
+  }
+  
+  @Test
+  public void testCircuitOpensAtDeadlineOfBlockedHandler() throws Exception {
+    final AtomicInteger called = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    final Subscriber subscriber = subscribe(event -> {
+      called.incrementAndGet();
+      // ignore the interrupt, like a handler blocked in I/O
+      boolean released = false;
+      while (!released) {
+        try {
+          released = release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+          // keep blocking
+        }
+      }
+    }, new DeliveryPolicy(20, 1, 5000, TimeUnit.MILLISECONDS));
+    final Thread blocked = new Thread(() -> {
+      try {
+        subscriber.onEvent(provisionEvent());
+      } catch (SubscriberTimeoutException expected) {
+        // expected
+      }
+    });
+    blocked.start();
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!subscriber.isCircuitOpen() && System.nanoTime() - deadline < 0) {
+      Thread.sleep(1);
+    }
+    assertTrue(subscriber.isCircuitOpen());
+    assertTrue(blocked.isAlive());
+    
+    subscriber.onEvent(provisionEvent());
+    assertEquals(called.get(), 1);
+    
+    release.countDown();
+    blocked.join(5000);
+    assertFalse(blocked.isAlive());
+    assertTrue(subscriber.isCircuitOpen());
+  }
+  
+  @Test
+  public void testHandlerWithinBudget() {
+    final AtomicInteger handled = new AtomicInteger();
+    final Subscriber subscriber = subscribe(event -> handled.incrementAndGet(),
+            new DeliveryPolicy(1, 0, 0, TimeUnit.SECONDS));
+    subscriber.onEvent(provisionEvent());
+    assertEquals(handled.get(), 1);
+    assertFalse(Thread.currentThread().isInterrupted());
+  }
+  
+  @Test
+  public void testCircuitOpensAfterConsecutiveFailures() throws Exception {
+    final AtomicInteger called = new AtomicInteger();
+    final boolean[] failing = {true};
+    final Subscriber subscriber = subscribe(event -> {
+      called.incrementAndGet();
+      if (failing[0]) {
+        throw new IllegalStateException("Handle failure");
+      }
+    }, new DeliveryPolicy(0, 2, 50, TimeUnit.MILLISECONDS));
+    for (int i = 0; i < 2; i++) {
+      try {
+        subscriber.onEvent(provisionEvent());
+      } catch (IllegalStateException expected) {
+        // expected
+      }
+    }
+    assertTrue(subscriber.isCircuitOpen());
+    subscriber.onEvent(provisionEvent());
+    assertEquals(called.get(), 2);
+    
+    Thread.sleep(60);
+    failing[0] = false;
+    subscriber.onEvent(provisionEvent());
+    assertEquals(called.get(), 3);
+    assertFalse(subscriber.isCircuitOpen());
+  }
+  
+  @Test
+  public void testHalfOpenCircuitAdmitsSingleProbe() throws Exception {
+    final AtomicInteger called = new AtomicInteger();
+    final CountDownLatch probing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Subscriber subscriber = subscribe(event -> {
+      if (called.incrementAndGet() <= 2) {
+        throw new IllegalStateException("Handle failure");
+      }
+      probing.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, new DeliveryPolicy(0, 2, 50, TimeUnit.MILLISECONDS));
+    for (int i = 0; i < 2; i++) {
+      try {
+        subscriber.onEvent(provisionEvent());
+      } catch (IllegalStateException expected) {
+        // expected
+      }
+    }
+    Thread.sleep(60);
+    final PendingEvent probe = provisionEvent();
+    final Thread prober = new Thread(() -> subscriber.onEvent(probe));
+    prober.start();
+    assertTrue(probing.await(5, TimeUnit.SECONDS));
+    
+    subscriber.onEvent(provisionEvent());
+    assertEquals(called.get(), 3);
+    assertTrue(subscriber.isCircuitOpen());
+    
+    release.countDown();
+    prober.join(5000);
+    assertFalse(subscriber.isCircuitOpen());
+  }
+  
+  @Test
+  public void testRejectEventOccurredBeforeSubscription() {
+    final AtomicInteger handled = new AtomicInteger();
+    final AtomicInteger discarded = new AtomicInteger();
+    final PendingEvent before = eventIdentityService.provisionEvent("event", SubscriberTest.class.getName(),
+            new DeliveryTracker() {
+              @Override
+              public void failed(EventHandler handler, Throwable cause) {
+                fail("Rejected event should not be reported as failed");
+              }
+              
+              @Override
+              public void discarded(EventHandler handler) {
+                discarded.incrementAndGet();
+              }
+            });
+    final Subscriber subscriber = subscribe(event -> handled.incrementAndGet(), DeliveryPolicy.UNBOUNDED);
+    final PendingEvent after = provisionEvent();
+    try {
+      subscriber.onEvent(before);
+      fail("Event occurred before subscription should be rejected");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+    assertEquals(discarded.get(), 1);
+    // usually in the same millisecond, but ordered by sequence
+    subscriber.onEvent(after);
+    assertEquals(handled.get(), 1);
+  }
+  
+  private Subscriber subscribe(EventHandler handler, DeliveryPolicy policy) {
+    return new Subscriber(handler, Type.of(String.class), policy, eventIdentityService.sequence());
+  }
+  
+  private PendingEvent provisionEvent() {
+    return eventIdentityService.provisionEvent("event", SubscriberTest.class.getName());
+  }
+}
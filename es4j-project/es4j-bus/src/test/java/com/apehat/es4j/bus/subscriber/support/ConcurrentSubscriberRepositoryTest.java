@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.subscriber.support;
+
+import com.apehat.es4j.bus.DistinctHandler;
+import com.apehat.es4j.bus.EventHandler;
+import com.apehat.es4j.bus.subscriber.DeliveryPolicy;
+import com.apehat.es4j.bus.subscriber.Subscriber;
+import com.apehat.es4j.bus.subscriber.SubscriberIdentityService;
+import com.apehat.support.sample.SampleClass1;
+import com.apehat.support.sample.SampleClass2;
+import com.apehat.support.sample.SampleMiddleClass1;
+import com.apehat.support.sample.SampleSuperInterface2;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class ConcurrentSubscriberRepositoryTest {
+  
+  private SubscriberIdentityService subscriberIdentityService;
+  
+  @BeforeMethod
+  public void setUp() {
+    subscriberIdentityService = new SubscriberIdentityService(new ConcurrentSubscriberRepository());
+  }
+  
+  @Test
+  public void testSnapshotIsReusedUntilChanged() {
+    final EventHandler handler = event -> {
+    };
+    subscriberIdentityService.provisionSubscriber(SampleMiddleClass1.class, handler);
+    final Subscriber[] snapshot = subscriberIdentityService.snapshotWith(SampleClass1.class);
+    assertEquals(snapshot.length, 1);
+    assertSame(subscriberIdentityService.snapshotWith(SampleClass1.class), snapshot);
+    
+    subscriberIdentityService.provisionSubscriber(SampleSuperInterface2.class, event -> {
+    });
+    assertSame(subscriberIdentityService.snapshotWith(SampleClass1.class), snapshot);
+    assertEquals(subscriberIdentityService.snapshotWith(SampleClass2.class).length, 2);
+    
+    assertTrue(subscriberIdentityService.removeSubscriber(handler));
+    assertFalse(subscriberIdentityService.removeSubscriber(handler));
+    assertEquals(subscriberIdentityService.snapshotWith(SampleClass1.class).length, 0);
+    assertEquals(subscriberIdentityService.snapshotWith(SampleClass2.class).length, 1);
+  }
+  
+  @Test
+  public void testProvisionSubscribersUpdatesResolvedTypes() {
+    assertEquals(subscriberIdentityService.snapshotWith(SampleClass2.class).length, 0);
+    final Map<EventHandler, Class<?>> subscriptions = new LinkedHashMap<>();
+    for (int i = 0; i < 100; i++) {
+      final Class<?> type = i % 2 == 0 ? SampleMiddleClass1.class : SampleSuperInterface2.class;
+      subscriptions.put(new DistinctHandler(), type);
+    }
+    subscriberIdentityService.provisionSubscribers(subscriptions);
+    assertEquals(subscriberIdentityService.snapshotWith(SampleClass1.class).length, 50);
+    assertEquals(subscriberIdentityService.snapshotWith(SampleClass2.class).length, 100);
+  }
+  
+  @Test
+  public void testProvisionSubscribersWithPolicies() {
+    final EventHandler handler = new DistinctHandler();
+    final DeliveryPolicy policy = new DeliveryPolicy(10, 3, 1, TimeUnit.SECONDS);
+    final Map<EventHandler, Class<?>> subscriptions = new LinkedHashMap<>();
+    subscriptions.put(handler, SampleMiddleClass1.class);
+    subscriptions.put(new DistinctHandler(), SampleMiddleClass1.class);
+    subscriberIdentityService.provisionSubscribers(subscriptions, Collections.singletonMap(handler, policy));
+    
+    for (Subscriber subscriber : subscriberIdentityService.snapshotWith(SampleClass1.class)) {
+      assertSame(subscriber.policy(), subscriber.handler() == handler ? policy : DeliveryPolicy.UNBOUNDED);
+    }
+  }
+  
+  @Test
+  public void testReadersSeeWholeBatches() throws Exception {
+    final int batches = 200;
+    final int batchSize = 50;
+    assertEquals(subscriberIdentityService.snapshotWith(SampleClass1.class).length, 0);
+    
+    final ExecutorService pool = Executors.newSingleThreadExecutor();
+    final AtomicBoolean done = new AtomicBoolean();
+    final Future<?> reader = pool.submit(() -> {
+      while (!done.get()) {
+        assertEquals(subscriberIdentityService.snapshotWith(SampleClass1.class).length % batchSize, 0);
+      }
+      return null;
+    });
+    for (int i = 0; i < batches; i++) {
+      final Map<EventHandler, Class<?>> subscriptions = new LinkedHashMap<>();
+      for (int j = 0; j < batchSize; j++) {
+        subscriptions.put(new DistinctHandler(), SampleMiddleClass1.class);
+      }
+      subscriberIdentityService.provisionSubscribers(subscriptions);
+    }
+    done.set(true);
+    reader.get(30, TimeUnit.SECONDS);
+    pool.shutdown();
+    assertEquals(subscriberIdentityService.snapshotWith(SampleClass1.class).length, batches * batchSize);
+  }
+  
+  @Test
+  public void testConcurrentSubscribeAndUnsubscribe() throws Exception {
+    final int threads = 8;
+    final int rounds = 2000;
+    final EventHandler stable = event -> {
+    };
+    subscriberIdentityService.provisionSubscriber(SampleMiddleClass1.class, stable);
+    
+    final ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      futures.add(pool.submit(() -> {
+        start.await();
+        for (int j = 0; j < rounds; j++) {
+          final EventHandler handler = new DistinctHandler();
+          subscriberIdentityService.provisionSubscriber(SampleMiddleClass1.class, handler);
+          subscriberIdentityService.snapshotWith(SampleClass1.class);
+          assertTrue(subscriberIdentityService.removeSubscriber(handler));
+        }
+        return null;
+      }));
+    }
+    futures.add(pool.submit(() -> {
+      start.await();
+      for (int j = 0; j < rounds; j++) {
+        boolean found = false;
+        for (Subscriber subscriber : subscriberIdentityService.snapshotWith(SampleClass1.class)) {
+          found |= subscriber.handler() == stable;
+        }
+        assertTrue(found);
+      }
+      return null;
+    }));
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get(30, TimeUnit.SECONDS);
+    }
+    pool.shutdown();
+    
+    final Subscriber[] remained = subscriberIdentityService.snapshotWith(SampleClass1.class);
+    assertEquals(remained.length, 1);
+    assertSame(remained[0].handler(), stable);
+  }
+}
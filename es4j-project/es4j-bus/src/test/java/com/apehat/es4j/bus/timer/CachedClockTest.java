@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.timer;
+
+import org.testng.annotations.Test;
+
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class CachedClockTest {
+  
+  @Test
+  public void testClockTicks() throws Exception {
+    try (CachedClock clock = new CachedClock(1, TimeUnit.MILLISECONDS)) {
+      final long start = clock.millis();
+      assertTrue(Math.abs(System.currentTimeMillis() - start) < 1000);
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (clock.millis() == start && System.nanoTime() < deadline) {
+        Thread.sleep(1);
+      }
+      assertTrue(clock.millis() > start);
+      assertTrue(clock.instant().toEpochMilli() > start);
+    }
+  }
+  
+  @Test
+  public void testClockIsFrozenAfterClose() throws Exception {
+    final CachedClock clock = new CachedClock(1, TimeUnit.MILLISECONDS);
+    clock.close();
+    Thread.sleep(5);
+    final long millis = clock.millis();
+    Thread.sleep(5);
+    assertEquals(clock.millis(), millis);
+  }
+  
+  @Test
+  public void testWithZoneSharesTicks() {
+    try (CachedClock clock = new CachedClock()) {
+      assertSame(clock.withZone(ZoneOffset.UTC), clock);
+      assertEquals(clock.withZone(ZoneOffset.ofHours(8)).getZone(), ZoneOffset.ofHours(8));
+    }
+  }
+  
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testPrecisionMustBePositive() {
+    new CachedClock(0, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.es4j.bus.timer;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class TimingWheelTest {
+  
+  private TimingWheel timingWheel;
+  
+  @BeforeMethod
+  public void setUp() {
+    // a small wheel, so that the tasks wrap around the wheel
+    timingWheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8, Executors.defaultThreadFactory());
+  }
+  
+  @AfterMethod
+  public void tearDown() throws InterruptedException {
+    timingWheel.close();
+  }
+  
+  @Test
+  public void testTasksExpireInDeadlineOrder() throws Exception {
+    final List<Integer> expired = new CopyOnWriteArrayList<>();
+    final CountDownLatch done = new CountDownLatch(3);
+    for (int delay : new int[]{60, 20, 40}) {
+      timingWheel.schedule(() -> {
+        expired.add(delay);
+        done.countDown();
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(expired.toString(), "[20, 40, 60]");
+    assertEquals(timingWheel.pending(), 0);
+  }
+  
+  @Test
+  public void testCancelledTaskNeverRuns() throws Exception {
+    final boolean[] ran = {false};
+    final Timeout cancelled = timingWheel.schedule(() -> ran[0] = true, 20, TimeUnit.MILLISECONDS);
+    final CountDownLatch done = new CountDownLatch(1);
+    final Timeout expired = timingWheel.schedule(done::countDown, 40, TimeUnit.MILLISECONDS);
+    assertTrue(cancelled.cancel());
+    assertFalse(cancelled.cancel());
+    
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(cancelled.isCancelled());
+    assertFalse(ran[0]);
+    assertTrue(expired.isExpired());
+    assertFalse(expired.cancel());
+  }
+  
+  @Test
+  public void testManyPendingTasks() throws Exception {
+    final int tasks = 200000;
+    final Timeout[] timeouts = new Timeout[tasks];
+    for (int i = 0; i < tasks; i++) {
+      timeouts[i] = timingWheel.schedule(() -> {
+      }, 1, TimeUnit.HOURS);
+    }
+    assertEquals(timingWheel.pending(), tasks);
+    for (Timeout timeout : timeouts) {
+      timeout.cancel();
+    }
+    assertEquals(timingWheel.pending(), 0);
+  }
+  
+  @Test(expectedExceptions = RejectedExecutionException.class)
+  public void testScheduleAfterClose() throws Exception {
+    timingWheel.close();
+    timingWheel.schedule(() -> {
+    }, 1, TimeUnit.MILLISECONDS);
+  }
+}